@@ -0,0 +1,195 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleConsumer;
+import java.util.function.Supplier;
+
+/** Writes saves on a background thread, one at a time, so the thread
+* which changes the map (eg: the JavaFX application thread) only has to
+* take a snapshot.
+* <br />All methods, snapshots and callbacks run on that owner thread;
+* the saver hands results back to it through an Executor (eg:
+* <code>Platform::runLater</code>). While a save is being written, further
+* requests are queued rather than snapshotted, and repeated requests for
+* the same target are coalesced into one, which takes its snapshot when
+* its turn comes.
+*/
+public class BackgroundSaver {
+
+    /** A save whose snapshot has been taken, ready to be written. */
+    public interface Job {
+        /** Write the snapshot (on the background thread).
+        * @param progress told the fraction written so far
+        * @return true if successful
+        */
+        boolean write(DoubleConsumer progress);
+
+        /** Called on the owner thread after write() has failed. */
+        default void failed() {
+        }
+    }
+
+    /** Told (on the owner thread) how saves are going. */
+    public interface Listener {
+        /**
+        * @param target what is being saved
+        * @param fraction fraction written so far
+        */
+        void progress(String target, double fraction);
+
+        /**
+        * @param target what was saved
+        * @param ok true if the save was successful
+        */
+        void finished(String target, boolean ok);
+    }
+
+    private final Executor owner;
+    private final Listener listener;
+    private final ExecutorService worker;
+    /* Only touched on the owner thread: the save being written (null
+       if none) and its target */
+    private Job writing;
+    private String writingTarget;
+    /* Set by the worker when it has written a save */
+    private volatile boolean outcome;
+    private final Map<String, Supplier<Job>> queued =
+            new LinkedHashMap<String, Supplier<Job>>();
+
+    /**
+    * @param owner runs tasks on the owner thread
+    * @param listener told about progress and results
+    */
+    public BackgroundSaver(Executor owner, Listener listener) {
+        this.owner = owner;
+        this.listener = listener;
+        worker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "map saver");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Ask for a save.
+    * @param target what is being saved (requests for the same target
+    *     are coalesced)
+    * @param snapshot takes the snapshot (on the owner thread) and returns
+    *     the job which writes it, or null if there is nothing to save to
+    * @return false if the save was queued behind one being written
+    */
+    public boolean save(String target, Supplier<Job> snapshot) {
+        if (writing != null) {
+            queued.put(target, snapshot);
+            return false;
+        }
+        start(target, snapshot);
+        return true;
+    }
+
+    /**
+    * @return true if a save is being written or waiting
+    */
+    public boolean isBusy() {
+        return writing != null || !queued.isEmpty();
+    }
+
+    /** Finish every save: wait for the one being written, then write
+    * the queued ones on this thread. Call on the owner thread when the
+    * program is finishing; every save is reported to the listener here
+    * (callbacks posted to the owner afterwards are ignored).
+    * <br />If the running save is still being written when the timeout
+    * expires, it is left to carry on and reported as not saved (its
+    * failed() is not called, as it may yet succeed), and the queued
+    * saves are reported as not saved without taking their snapshots,
+    * so nothing is written alongside it.
+    * @param timeout longest time to wait for the running save (ms)
+    * @return true if every save was written, false if one failed or
+    *     the timeout expired
+    * @throws InterruptedException if interrupted while waiting
+    */
+    public boolean finish(long timeout) throws InterruptedException {
+        worker.shutdown();
+        boolean all = true;
+        if (!worker.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+            if (writing != null) {
+                writing = null;
+                listener.finished(writingTarget, false);
+            }
+            for (String target : queued.keySet()) {
+                listener.finished(target, false);
+            }
+            queued.clear();
+            return false;
+        }
+        if (writing != null) {
+                // its done() is waiting on the owner thread, which is here
+            Job job = writing;
+            writing = null;
+            all = report(writingTarget, job, outcome);
+        }
+        for (Map.Entry<String, Supplier<Job>> e : queued.entrySet()) {
+            Job job = e.getValue().get();
+            if (job == null) {
+                listener.finished(e.getKey(), false);
+                all = false;
+                continue;
+            }
+            all &= report(e.getKey(), job, write(job, f -> { }));
+        }
+        queued.clear();
+        return all;
+    }
+
+    /* Take the snapshot here, then write it on the worker */
+    private void start(String target, Supplier<Job> snapshot) {
+        Job job = snapshot.get();
+        if (job == null) {
+            listener.finished(target, false);
+            return;
+        }
+        writing = job;
+        writingTarget = target;
+        worker.execute(() -> {
+            boolean ok = write(job, f -> owner.execute(
+                    () -> listener.progress(target, f)));
+            outcome = ok;
+            owner.execute(() -> done(job, ok));
+        });
+    }
+
+    /* Write job, counting an exception as failure */
+    private static boolean write(Job job, DoubleConsumer progress) {
+        try {
+            return job.write(progress);
+        } catch (RuntimeException ex) {
+            return false;
+        }
+    }
+
+    /* Tell the job and the listener how it went */
+    private boolean report(String target, Job job, boolean ok) {
+        if (!ok) {
+            job.failed();
+        }
+        listener.finished(target, ok);
+        return ok;
+    }
+
+    /* Back on the owner thread: report and start the next queued save */
+    private void done(Job job, boolean ok) {
+        if (job != writing) {
+            return;                     // finish() has already reported it
+        }
+        writing = null;
+        report(writingTarget, job, ok);
+        if (!queued.isEmpty()) {
+            Map.Entry<String, Supplier<Job>> next =
+                    queued.entrySet().iterator().next();
+            queued.remove(next.getKey());
+            start(next.getKey(), next.getValue());
+        }
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Compact binary form of the map written by
+* {@link MapIO#saveMap MapIO.saveMap}.
+* <br />Rooms are numbered in the same order as the text format (start room
+* first) and hold the same information, but every string is stored once
+* in a table and numbers are stored as varints.
+* <br />Layout (all counts and indices are unsigned varints, signed ints
+* are zig-zag varints and doubles are 8 raw bytes):
+* <ol><li>magic <code>CRWB</code>, format version byte</li>
+*     <li>number of strings, then each as UTF-8 length and bytes</li>
+*     <li>number of rooms, then the description string of each room</li>
+*     <li>for each room: number of exits, then (label string, target room)
+*         pairs</li>
+*     <li>for each room: number of Things, then one record per Thing:
+*         <ul><li><code>$</code> value short</li>
+*             <li><code>C</code> value health short long</li>
+*             <li><code>E</code> health short long</li>
+*             <li><code>R</code> repr() string, for any other Thing</li>
+*         </ul></li>
+* </ol>
+* Values are stored exactly, so a map read from a text file survives a trip
+* through this format unchanged.
+*/
+class BinaryMap {
+    /** First bytes of every binary map */
+    static final byte[] MAGIC = {'C', 'R', 'W', 'B'};
+    /** Current format version */
+    static final int VERSION = 1;
+
+    private BinaryMap() {
+    }
+
+    /** Write all rooms reachable from root.
+    * @param root start room
+    * @param filename file to write
+    * @throws IOException on write failure
+    */
+    static void write(Room root, String filename) throws IOException {
+        try (OutputStream os = new FileOutputStream(filename)) {
+            write(root, os);
+        }
+    }
+
+    /** Write all rooms reachable from root.
+    * @param root start room
+    * @param stream stream to write to (not closed)
+    * @throws IOException on write failure
+    */
+    static void write(Room root, OutputStream stream) throws IOException {
+        MapIO.SeqWalker sw = new MapIO.SeqWalker(root);
+        sw.walk();
+        List<Room> rooms = sw.seq;
+        Map<Room, Integer> idm = new HashMap<Room, Integer>();
+        Map<String, Integer> strings = new HashMap<String, Integer>();
+        List<String> table = new ArrayList<String>();
+        for (Room r : rooms) {
+            idm.put(r, idm.size());
+            intern(r.getDescription(), strings, table);
+            for (String label : r.getExits().keySet()) {
+                intern(label, strings, table);
+            }
+            for (Thing t : r.getContents()) {
+                if (t instanceof Treasure) {
+                    intern(t.getShort(), strings, table);
+                } else if ((t instanceof Critter) || (t instanceof Explorer)) {
+                    intern(t.getShort(), strings, table);
+                    intern(t.getLong(), strings, table);
+                } else {
+                    intern(t.repr(), strings, table);
+                }
+            }
+        }
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(stream, 1 << 16));
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        writeVarint(out, table.size());
+        for (String s : table) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, b.length);
+            out.write(b);
+        }
+        writeVarint(out, rooms.size());
+        for (Room r : rooms) {
+            writeVarint(out, strings.get(r.getDescription()));
+        }
+        for (Room r : rooms) {
+            Map<String, Room> exits = r.getExits();
+            writeVarint(out, exits.size());
+            for (Map.Entry<String, Room> e : exits.entrySet()) {
+                writeVarint(out, strings.get(e.getKey()));
+                writeVarint(out, idm.get(e.getValue()));
+            }
+        }
+        for (Room r : rooms) {
+            List<Thing> l = r.getContents();
+            writeVarint(out, l.size());
+            for (Thing t : l) {
+                if (t instanceof Treasure) {
+                    out.writeByte('$');
+                    out.writeDouble(((Treasure) t).getValue());
+                    writeVarint(out, strings.get(t.getShort()));
+                } else if (t instanceof Critter) {
+                    Critter c = (Critter) t;
+                    out.writeByte('C');
+                    out.writeDouble(c.getValue());
+                    writeSigned(out, c.getHealth());
+                    writeVarint(out, strings.get(t.getShort()));
+                    writeVarint(out, strings.get(t.getLong()));
+                } else if (t instanceof Explorer) {
+                    out.writeByte('E');
+                    writeSigned(out, ((Explorer) t).getHealth());
+                    writeVarint(out, strings.get(t.getShort()));
+                    writeVarint(out, strings.get(t.getLong()));
+                } else {
+                    out.writeByte('R');
+                    writeVarint(out, strings.get(t.repr()));
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /** Read every room in a binary map file, in file order.
+    * @param filename file to read
+    * @param player if not null, Players are not added to their room
+    *     and the last one found is stored in player[0] instead
+    * @return the rooms or null if the file is not a valid binary map
+    * @throws IOException on read failure
+    */
+    static Room[] read(String filename, Player[] player) throws IOException {
+        try (InputStream is = new FileInputStream(filename)) {
+            return read(is, player, new File(filename).length());
+        }
+    }
+
+    /** Read every room from a binary map stream, in file order.
+    * <br />Counts and string lengths larger than size can't be right, so
+    * they are rejected before anything is allocated for them.
+    * @param stream stream to read from (not closed)
+    * @param player if not null, Players are not added to their room
+    *     and the last one found is stored in player[0] instead
+    * @param size most bytes the stream can hold
+    * @return the rooms or null if the stream is not a valid binary map
+    * @throws IOException on read failure
+    */
+    static Room[] read(InputStream stream, Player[] player, long size)
+            throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(stream, 1 << 16));
+        try {
+            for (byte m : MAGIC) {
+                if (in.readByte() != m) {
+                    return null;
+                }
+            }
+            if (in.readUnsignedByte() != VERSION) {
+                return null;
+            }
+            int count = readVarint(in);
+            if (count > size) {   // every string takes at least a byte
+                return null;
+            }
+            String[] table = new String[count];
+            byte[] buf = new byte[256];
+            for (int i = 0; i < table.length; ++i) {
+                int len = readVarint(in);
+                if (len > size) {
+                    return null;
+                }
+                if (len > buf.length) {
+                    buf = new byte[Math.max(len, buf.length * 2)];
+                }
+                in.readFully(buf, 0, len);
+                table[i] = new String(buf, 0, len, StandardCharsets.UTF_8);
+            }
+            count = readVarint(in);
+            if (count == 0 || count > size / 3) {   // 3 bytes a room at least
+                return null;
+            }
+            Room[] rooms = new Room[count];
+            for (int i = 0; i < rooms.length; ++i) {
+                rooms[i] = new Room(table[readVarint(in)]);
+            }
+            for (Room r : rooms) {
+                int exitcount = readVarint(in);
+                for (int j = 0; j < exitcount; ++j) {
+                    String label = table[readVarint(in)];
+                    r.addExit(label, rooms[readVarint(in)]);
+                }
+            }
+            for (Room r : rooms) {
+                int itemcount = readVarint(in);
+                for (int j = 0; j < itemcount; ++j) {
+                    Thing t = readThing(in, table, rooms[0]);
+                    if (t == null) {
+                        return null;
+                    }
+                    if ((player != null) && (t instanceof Player)) {
+                        player[0] = (Player) t;
+                    } else {
+                        r.enter(t);
+                    }
+                }
+            }
+            return rooms;
+        } catch (EOFException ex) {
+            return null;
+        } catch (IndexOutOfBoundsException ex) {
+            return null;
+        } catch (NegativeArraySizeException ex) {
+            return null;
+        } catch (ExitExistsException ex) {
+            return null;
+        } catch (NullRoomException ex) {
+            return null;
+        }
+    }
+
+    /** Does a file start with the binary map header?
+    * @param filename file to check
+    * @return true if the magic bytes match
+    */
+    static boolean isBinary(String filename) {
+        try (InputStream is = new FileInputStream(filename)) {
+            for (byte m : MAGIC) {
+                if (is.read() != m) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /* Read one Thing record (null for an unknown record type) */
+    private static Thing readThing(DataInputStream in, String[] table,
+            Room root) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+        case '$': {
+            double value = in.readDouble();
+            return new Treasure(table[readVarint(in)], value);
+        }
+        case 'C': {
+            double value = in.readDouble();
+            int health = readSigned(in);
+            String s = table[readVarint(in)];
+            return new Critter(s, table[readVarint(in)], value, health);
+        }
+        case 'E': {
+            int health = readSigned(in);
+            String s = table[readVarint(in)];
+            return new Explorer(s, table[readVarint(in)], health);
+        }
+        case 'R':
+            return MapIO.decodeThing(table[readVarint(in)], root);
+        default:
+            return null;
+        }
+    }
+
+    private static void intern(String s, Map<String, Integer> strings,
+            List<String> table) {
+        if (!strings.containsKey(s)) {
+            strings.put(s, table.size());
+            table.add(s);
+        }
+    }
+
+    /** Write an unsigned LEB128 varint.
+    * @param out stream to write to
+    * @param v value (treated as unsigned)
+    * @throws IOException on write failure
+    */
+    static void writeVarint(DataOutput out, int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    /** Read an unsigned LEB128 varint.
+    * @param in stream to read from
+    * @return value
+    * @throws IOException on read failure or a varint over 5 bytes
+    */
+    static int readVarint(DataInput in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /** Write a zig-zag encoded varint (small negatives stay small).
+    * @param out stream to write to
+    * @param v value
+    * @throws IOException on write failure
+    */
+    static void writeSigned(DataOutput out, int v)
+            throws IOException {
+        writeVarint(out, (v << 1) ^ (v >> 31));
+    }
+
+    /** Read a zig-zag encoded varint.
+    * @param in stream to read from
+    * @return value
+    * @throws IOException on read failure
+    */
+    static int readSigned(DataInput in) throws IOException {
+        int v = readVarint(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
@@ -1,10 +1,20 @@
 import java.util.*;
 
 /** Find the bounding box for the overall map.
+* <br />After walk(), {@link #track track()} keeps the layout up to date as
+* exits are added and removed: rooms which become reachable are placed
+* (by the same rules as walk()) as they are found, and rooms which can no
+* longer be reached are dropped, so a change only costs as much as the
+* part of the map it affects. Rooms already placed keep their
+* coordinates, and the bounds shrink using counts of the rooms in each
+* row and column.
 * @author JF
 */
 public class BoundsMapper extends MapWalker {
-  /** Map Rooms to coordinates*/
+  /** Coordinates of each Room */
+  public CoordMap positions;
+
+  /** Map Rooms to coordinates (a read-only view of positions) */
   public Map<Room, Pair> coords;
   
   /** Minimum x coordinate for rooms (root has x=0) */
@@ -18,10 +28,53 @@ public class BoundsMapper extends MapWalker {
   
   /** Maximum y coordinate for rooms (root has y=0) */  
   public int yMax;  
+
+  /* Start of the walk */
+  private Room root;
+  /* Number of walks so far (each lays the map out afresh) */
+  private int walks;
+  /* While tracking: for each placed room, the room whose exit placed it
+  * and how many exits from placed rooms lead to it; and how many rooms
+  * are placed in each column and row. (null until needed)
+  */
+  private Map<Room, Node> nodes;
+  private Map<Integer, Integer> columns, rows;
+  private RoomListener listener;
+  /* Index of positions, once asked for */
+  private SpatialIndex index;
+  /* While tracking, where the room being placed is from the room whose
+  * exit reached it (used when it has no exits back to placed rooms yet,
+  * eg: half way through makeExitPair)
+  */
+  private long beside = NONE;
+  /* Stands for no coordinates: pack(Integer.MIN_VALUE, 0), which no
+  * walk gets anywhere near
+  */
+  private static final long NONE = Long.MIN_VALUE;
+
+  private static class Node {
+    Room parent;
+    int refs;
+
+    Node(Room parent) {
+      this.parent = parent;
+    }
+  }
   
   public BoundsMapper(Room root) {
     super(root);
-    coords = new HashMap<Room, Pair>();
+    this.root = root;
+    positions = new CoordMap();
+    coords = positions.asMap();
+    xMin = xMax = yMin = yMax = 0;    
+  }
+
+  /** Walk the exits recorded in graph (see {@link MapWalker#MapWalker(RoomGraph, Room)}) */
+  public BoundsMapper(RoomGraph graph, Room root) {
+    super(graph, root);
+    this.root = root;
+    positions = new CoordMap();
+    coords = positions.asMap();
     xMin = xMax = yMin = yMax = 0;    
   }
   
@@ -40,41 +93,341 @@ public class BoundsMapper extends MapWalker {
   * 
   */
   protected void visit(Room room) {
-    Map<String, Room> exits = room.getExits();
-    Pair n = null;
-    if (hasVisited(exits.get("North"))) {
-        Pair p = coords.get(exits.get("North"));
-        n = new Pair(p.x,p.y + 1);  // remember screen coords flipped
-    } else if (hasVisited(exits.get("South"))) {
-        Pair p = coords.get(exits.get("South"));
-        n = new Pair(p.x,p.y - 1);  // remember screen coords flipped
-    } else if (hasVisited(exits.get("East"))) {
-        Pair p = coords.get(exits.get("East"));
-        n = new Pair(p.x - 1,p.y);
-    } else if (hasVisited(exits.get("West"))) {
-        Pair p = coords.get(exits.get("West"));
-        n = new Pair(p.x + 1,p.y);
+    long p;
+    int x, y;
+    if ((p = positions.get(room.getExit(Direction.NORTH), NONE)) != NONE) {
+        x = CoordMap.x(p);
+        y = CoordMap.y(p) + 1;  // remember screen coords flipped
+    } else if ((p = positions.get(room.getExit(Direction.SOUTH), NONE))
+        != NONE) {
+        x = CoordMap.x(p);
+        y = CoordMap.y(p) - 1;  // remember screen coords flipped
+    } else if ((p = positions.get(room.getExit(Direction.EAST), NONE))
+        != NONE) {
+        x = CoordMap.x(p) - 1;
+        y = CoordMap.y(p);
+    } else if ((p = positions.get(room.getExit(Direction.WEST), NONE))
+        != NONE) {
+        x = CoordMap.x(p) + 1;
+        y = CoordMap.y(p);
+    } else if (beside != NONE) {
+        // placed while tracking: go by the exit we were reached through
+        x = CoordMap.x(beside);
+        y = CoordMap.y(beside);
     } else {
         // can't be sure where we are, assume 0, 0
-        n = new Pair(0,0);
+        x = y = 0;
+    }
+    positions.put(room, x, y);
+    if (index != null) {
+      index.add(room, x, y);
     }
-    coords.put(room, n);
-    if (n.x < xMin) {
-      xMin = n.x;
-    } else if (n.x > xMax) {
-      xMax = n.x;
+    if (columns != null) {
+      occupy(x, y, 1);
     }
-    if (n.y < yMin) {
-      yMin = n.y;
-    } else if (n.y > yMax) {
-      yMax = n.y;
+    if (x < xMin) {
+      xMin = x;
+    } else if (x > xMax) {
+      xMax = x;
     }
+    if (y < yMin) {
+      yMin = y;
+    } else if (y > yMax) {
+      yMax = y;
+    }
+  }
+
+  /**
+  * @param room Room to query
+  * @return true if room has been given coordinates
+  */
+  @Override
+  public boolean hasVisited(Room room) {
+    return positions.containsKey(room);
   }
 
   @Override 
   public void reset() {
     super.reset();
-    coords = new HashMap<Room, Pair>();
+    positions = new CoordMap();
+    coords = positions.asMap();
     xMin = xMax = yMin = yMax = 0;    
+    nodes = null;
+    columns = rows = null;
+    if (index != null) {
+      index.clear();
+    }
+  }
+
+  /** The rooms placed so far, indexed by coordinates. The same index is
+  * kept up to date by later walks and (while tracking) exit changes.
+  * @return the index
+  */
+  public SpatialIndex getIndex() {
+    if (index == null) {
+      index = SpatialIndex.of(positions);
+    }
+    return index;
+  }
+
+  /** Visit all reachable rooms (again) */
+  @Override
+  public synchronized void walk() {
+    ++walks;
+    super.walk();
+    if (listener != null) {
+      link();
+    }
+  }
+
+  /** Rooms keep their coordinates until the next walk (which tracking
+  * may do when a room is cut off).
+  * @return number of walks so far
+  */
+  synchronized int walks() {
+    return walks;
+  }
+
+  /** Follow exit changes from now on (walking first if that has not been
+  * done). Changes to this map must be made on one thread at a time (the
+  * one reading the coordinates); changes to other maps, which may be
+  * built on any thread, are ignored.
+  */
+  public synchronized void track() {
+    if (listener != null) {
+      return;
+    }
+    if (positions.size() == 0) {
+      walk();
+    }
+    link();
+    listener = new RoomListener() {
+      @Override
+      public void roomDirty(Room room) {
+      }
+
+      @Override
+      public void exitAdded(Room room, String label, Room target) {
+        added(room, label, target);
+      }
+
+      @Override
+      public void exitRemoved(Room room, String label, Room target) {
+        removed(room, target);
+      }
+    };
+    Room.addRoomListener(listener);
+  }
+
+  /** Stop following exit changes. */
+  public synchronized void untrack() {
+    if (listener != null) {
+      Room.removeRoomListener(listener);
+      listener = null;
+    }
+  }
+
+  /* Work out how every placed room was reached, and the row and column
+  * counts, after a walk
+  */
+  private void link() {
+    nodes = new HashMap<Room, Node>();
+    nodes.put(root, new Node(null));
+    Deque<Room> todo = new ArrayDeque<Room>();
+    todo.add(root);
+    while (!todo.isEmpty()) {
+      Room r = todo.removeFirst();
+      r.forEachExit((label, e) -> {
+        Node n = nodes.get(e);
+        if (n == null) {
+          n = new Node(r);
+          nodes.put(e, n);
+          todo.add(e);
+        }
+        ++n.refs;
+      });
+    }
+    columns = new HashMap<Integer, Integer>();
+    rows = new HashMap<Integer, Integer>();
+    positions.forEach((r, x, y) -> occupy(x, y, 1));
+  }
+
+  /* An exit from room to target has been added (rooms are only looked
+  * up holding the lock, as other maps may be changing on other threads)
+  */
+  private synchronized void added(Room room, String label, Room target) {
+    if (!nodes.containsKey(room)) {
+      return;
+    }
+    Node t = nodes.get(target);
+    if (t != null) {
+      ++t.refs;
+      return;
+    }
+    // place target and everything newly reachable through it, in the
+    // order walk() would reach them
+    t = new Node(room);
+    t.refs = 1;
+    nodes.put(target, t);
+    Deque<Room> todo = new ArrayDeque<Room>();
+    Deque<String> labels = new ArrayDeque<String>();
+    todo.add(target);
+    labels.add(label);
+    while (!todo.isEmpty()) {
+      Room r = todo.removeFirst();
+      beside = step(positions.get(nodes.get(r).parent, 0),
+          labels.removeFirst());
+      visit(r);
+      beside = NONE;
+      for (Map.Entry<String, Room> e : r.getExits().entrySet()) {
+        Node n = nodes.get(e.getValue());
+        if (n == null) {
+          n = new Node(r);
+          nodes.put(e.getValue(), n);
+          todo.add(e.getValue());
+          labels.add(e.getKey());
+        }
+        ++n.refs;
+      }
+    }
+  }
+
+  /* Coordinates through the exit labelled label from p (or NONE) */
+  private static long step(long p, String label) {
+    Direction d = Direction.of(label);
+    if (d == null) {
+      return NONE;
+    }
+    return CoordMap.pack(CoordMap.x(p) + d.dx(), CoordMap.y(p) + d.dy());
+  }
+
+  /* An exit from room to target has been removed */
+  private synchronized void removed(Room room, Room target) {
+    if (!nodes.containsKey(room)) {
+      return;
+    }
+    Node t = nodes.get(target);
+    if (t == null) {
+      return;
+    }
+    --t.refs;
+    if (t.parent == room && !room.getExits().containsValue(target)) {
+      detach(target);
+    }
+  }
+
+  /* target has lost the exit it was placed through: keep the rooms placed
+  * through it which can still be reached some other way, drop the rest
+  */
+  private void detach(Room target) {
+    List<Room> sub = new ArrayList<Room>();
+    Set<Room> inSub = new HashSet<Room>();
+    sub.add(target);
+    inSub.add(target);
+    for (int i = 0; i < sub.size(); ++i) {
+      Room r = sub.get(i);
+      for (Room e : r.getExits().values()) {
+        Node n = nodes.get(e);
+        if (n != null && n.parent == r && inSub.add(e)) {
+          sub.add(e);
+        }
+      }
+    }
+    Map<Room, Integer> inside = new HashMap<Room, Integer>();
+    for (Room r : sub) {
+      for (Room e : r.getExits().values()) {
+        if (inSub.contains(e)) {
+          inside.merge(e, 1, Integer::sum);
+        }
+      }
+    }
+    // rooms with exits leading to them from outside are still reachable
+    List<Room> kept = new ArrayList<Room>();
+    Set<Room> keep = new HashSet<Room>();
+    List<Room> unsure = new ArrayList<Room>();
+    for (Room r : sub) {
+      Node n = nodes.get(r);
+      if (n.refs > inside.getOrDefault(r, 0)) {
+        Room from = outsideNeighbour(r, inSub);
+        if (from == null) {
+          unsure.add(r);
+        } else if (keep.add(r)) {
+          n.parent = from;
+          kept.add(r);
+        }
+      }
+    }
+    for (int i = 0; i < kept.size(); ++i) {
+      Room r = kept.get(i);
+      for (Room e : r.getExits().values()) {
+        if (inSub.contains(e) && keep.add(e)) {
+          nodes.get(e).parent = r;
+          kept.add(e);
+        }
+      }
+    }
+    for (Room r : unsure) {
+      if (!keep.contains(r)) {
+        // only one-way exits lead in and we don't know from where
+        walk();
+        return;
+      }
+    }
+    Set<Room> lost = new HashSet<Room>();
+    for (Room r : sub) {
+      if (!keep.contains(r)) {
+        lost.add(r);
+      }
+    }
+    for (Room r : lost) {
+      for (Room e : r.getExits().values()) {
+        Node n = nodes.get(e);
+        if (n != null && !lost.contains(e)) {
+          --n.refs;
+        }
+      }
+      nodes.remove(r);
+      long p = positions.get(r, 0);
+      positions.remove(r);
+      if (index != null) {
+        index.remove(r, CoordMap.x(p), CoordMap.y(p));
+      }
+      occupy(CoordMap.x(p), CoordMap.y(p), -1);
+    }
+    while (xMin < 0 && !columns.containsKey(xMin)) {
+      ++xMin;
+    }
+    while (xMax > 0 && !columns.containsKey(xMax)) {
+      --xMax;
+    }
+    while (yMin < 0 && !rows.containsKey(yMin)) {
+      ++yMin;
+    }
+    while (yMax > 0 && !rows.containsKey(yMax)) {
+      --yMax;
+    }
+  }
+
+  /* A placed room outside sub with an exit both to and from r (or null) */
+  private Room outsideNeighbour(Room r, Set<Room> sub) {
+    for (Room e : r.getExits().values()) {
+      if (!sub.contains(e) && nodes.containsKey(e)
+          && e.getExits().containsValue(r)) {
+        return e;
+      }
+    }
+    return null;
+  }
+
+  /* Add (or remove) a room at (x, y) from the row and column counts */
+  private void occupy(int x, int y, int delta) {
+    columns.merge(x, delta, BoundsMapper::sum);
+    rows.merge(y, delta, BoundsMapper::sum);
+  }
+
+  /* Sum of counts, or null (to drop the entry) if it is zero */
+  private static Integer sum(Integer a, Integer b) {
+    int s = a + b;
+    return (s == 0) ? null : s;
   }
 }
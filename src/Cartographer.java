@@ -1,6 +1,7 @@
-import java.util.Map.Entry;
+import java.util.function.Consumer;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
 
 /**
  * Cartographer is to extend javafx.scene.canvas.Canvas. This class will be
@@ -16,6 +17,10 @@ import javafx.scene.canvas.GraphicsContext;
  * indicated with a m in the bottom right quadrant. Your cartographer must be
  * large enough to show the entire loaded map. That is, your initial window size
  * will vary depending on the map being loaded.
+ * Maps with more than VIEW_COLUMNS x VIEW_ROWS rooms are shown through a
+ * window of that size centred on the player, and only the rooms inside it
+ * (found with the BoundsMapper's SpatialIndex) are drawn. Clicking a room
+ * selects it.
  */
 public class Cartographer extends Canvas {
 
@@ -28,6 +33,17 @@ public class Cartographer extends Canvas {
     private int xOffset;
     private int yOffset;
     private GraphicsContext gc = this.getGraphicsContext2D();
+    //most rooms shown across and down
+    static final int VIEW_COLUMNS = 25;
+    static final int VIEW_ROWS = 18;
+    //coordinates of the room in the top left corner and rooms shown
+    private int viewX;
+    private int viewY;
+    private int columns;
+    private int rows;
+    private BoundsMapper bm;
+    private Room selected;
+    private Consumer<Room> onSelect;
 
     /**
      * Cartographer is to extend javafx.scene.canvas.Canvas. This class will be
@@ -35,54 +51,98 @@ public class Cartographer extends Canvas {
      * reachable rooms starting from a "start room".
      *
      * @param bm BoundsMapper to get coordinates and rooms
+     * @param focus room to keep in view (the player's)
      */
-    Cartographer(BoundsMapper bm) {
+    Cartographer(BoundsMapper bm, Room focus) {
         super();
-        drawMap(bm);
+        drawMap(bm, focus);
+        //select the room under the mouse, if there is one
+        setOnMouseClicked(e -> select(e.getX(), e.getY()));
     }
 
-    private void drawMap(BoundsMapper bm) {
-        setOffset(bm);
+    /**
+     * @param action called with the room when a room is clicked on
+     */
+    void setOnSelect(Consumer<Room> action) {
+        onSelect = action;
+    }
+
+    /**
+     * @return the room last clicked on (or null)
+     */
+    Room getSelected() {
+        return selected;
+    }
+
+    private void drawMap(BoundsMapper bm, Room focus) {
+        this.bm = bm;
         setCanvasArea(bm);
-        //loop through all room and pair
-        for (Entry<Room, Pair> rp : bm.coords.entrySet()) {
-            Room room = rp.getKey(); // get room
-            Pair pair = rp.getValue(); //get pair
+        setOffset(bm, focus);
+        paint();
+    }
+
+    //draw the rooms in view
+    private void paint() {
+        //loop through the rooms in view and their coordinates
+        bm.getIndex().query(viewX, viewY, viewX + columns - 1,
+                viewY + rows - 1, (room, px, py) -> {
             //add offsets to x * width and y * height
-            double x = xOffset + (pair.x * roomWidth);
-            double y = yOffset + (pair.y * roomHeight);
+            double x = xOffset + (px * roomWidth);
+            double y = yOffset + (py * roomHeight);
             //draw room as rectangle
             drawRooms(x, y);
             //draw exits of the room as short lines in the middle
             drawExits(room, x, y);
             //draw things in the room
             drawThings(room, x, y);
+        });
+        long at = bm.positions.get(selected, Long.MIN_VALUE);
+        if (at != Long.MIN_VALUE) {
+            //outline the selected room
+            gc.save();
+            gc.setStroke(Color.RED);
+            gc.strokeRect(xOffset + CoordMap.x(at) * roomWidth + 2.5,
+                    yOffset + CoordMap.y(at) * roomHeight + 2.5,
+                    roomWidth - 4, roomHeight - 4);
+            gc.restore();
         }
     }
 
-    private void setOffset(BoundsMapper bm) {
-        // -xMin * room width to get x coordinate offset
-        xOffset = (-bm.xMin * roomWidth);
-        // -yMin * room height to get y coordinate offset
-        yOffset = (-bm.yMin * roomHeight);
+    /*
+    Choose the top left room to show: xMin, yMin if the whole map fits,
+    otherwise so that focus is in the middle (but not past the edges)
+    */
+    private void setOffset(BoundsMapper bm, Room focus) {
+        long at = bm.positions.get(focus, CoordMap.pack(bm.xMin, bm.yMin));
+        viewX = Math.max(bm.xMin, Math.min(bm.xMax - columns + 1,
+                CoordMap.x(at) - columns / 2));
+        viewY = Math.max(bm.yMin, Math.min(bm.yMax - rows + 1,
+                CoordMap.y(at) - rows / 2));
+        // -viewX * room width to get x coordinate offset
+        xOffset = (-viewX * roomWidth);
+        // -viewY * room height to get y coordinate offset
+        yOffset = (-viewY * roomHeight);
     }
 
     /*
     Canvas width is produced by (xMin + xMax )* room width
     We need to plus one for (0,0) room
+    (but no more than VIEW_COLUMNS rooms)
     extra pixel is added for displaying full rectangles
     Canvas height is also calculated the same
     */
     private void setCanvasArea(BoundsMapper bm) {
-        int canvasWidth = (-bm.xMin + bm.xMax + 1) * roomWidth + extraPixel;
-        int canvasHeight = (-bm.yMin + bm.yMax + 1) * roomHeight + extraPixel;
+        columns = Math.min(-bm.xMin + bm.xMax + 1, VIEW_COLUMNS);
+        rows = Math.min(-bm.yMin + bm.yMax + 1, VIEW_ROWS);
+        int canvasWidth = columns * roomWidth + extraPixel;
+        int canvasHeight = rows * roomHeight + extraPixel;
         this.setWidth(canvasWidth);
         this.setHeight(canvasHeight);
     }
 
     //draw player,treasure, critter(alive) and critter(dead)
     private void drawThings(Room room, double x, double y) {
-        for (Thing t : room.getContents()) {
+        room.forEachThing(t -> {
             //The player is to be indicated with a @ in the top left quadrant
             //(ie the top left corner) of the room.
             if (t instanceof Player) {
@@ -107,11 +167,11 @@ public class Cartographer extends Canvas {
                 gc.fillText("m", x + wMidPoint + extraPixel * 2,
                         y + hMidPoint + (hMidPoint / 2));
             }
-        }
+        });
     }
 
     private void drawExits(Room room, double x, double y) {
-        if (room.getExits().containsKey("North")) {
+        if (room.getExit(Direction.NORTH) != null) {
             //draw line from x mid point to up
             gc.strokeLine(x + wMidPoint, y,
                     x + wMidPoint, y + exitLength);
@@ -120,7 +180,7 @@ public class Cartographer extends Canvas {
             gc.strokeLine(x + wMidPoint, y,
                     x + wMidPoint, y - exitLength + extraPixel);
         }
-        if (room.getExits().containsKey("West")) {
+        if (room.getExit(Direction.WEST) != null) {
             //draw line from y mid point to right
             gc.strokeLine(x + exitLength, y + hMidPoint,
                     x, y + hMidPoint);
@@ -140,10 +200,34 @@ public class Cartographer extends Canvas {
     }
 
     //call by buttons actions in CrawlGui
-    //clear the canvas and draw the map again
-    void update(BoundsMapper bm) {
+    //clear the canvas and draw the map again, keeping focus in view
+    void update(BoundsMapper bm, Room focus) {
         gc.clearRect(0, 0, this.getWidth(), this.getHeight());
-        drawMap(bm);
+        drawMap(bm, focus);
+    }
+
+    //select the room at (or next to) the clicked point and redraw
+    private void select(double px, double py) {
+        if (bm == null) {
+            return;
+        }
+        //cell coordinates of the click, measured from room centres
+        double cx = viewX + (px - extraPixel) / roomWidth - 0.5;
+        double cy = viewY + (py - extraPixel) / roomHeight - 0.5;
+        Room room = bm.getIndex().nearest(cx, cy);
+        long at = bm.positions.get(room, Long.MIN_VALUE);
+        if (at == Long.MIN_VALUE
+                || Math.abs(CoordMap.x(at) - cx) > 0.5
+                || Math.abs(CoordMap.y(at) - cy) > 0.5) {
+            //clicked on an empty cell
+            return;
+        }
+        selected = room;
+        gc.clearRect(0, 0, this.getWidth(), this.getHeight());
+        paint();
+        if (onSelect != null) {
+            onSelect.accept(room);
+        }
     }
 
 }
@@ -0,0 +1,330 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/** Coordinates of {@link Room Room}s, and the Room at each coordinate.
+* <br />Coordinates are packed into a long (see {@link #pack pack}) and kept
+* in an open-addressing table (linear probing, at most half full) hashed on
+* {@link Room#getId Room ids}, so there is no object per entry. Rooms are
+* compared by identity. A second table, hashed on the packed coordinates,
+* holds the slot of every room, so rooms at the same coordinate share a
+* probe sequence.
+* <br />If several rooms are put at the same coordinate,
+* {@link #roomAt roomAt} gives one of them (and another once that one is
+* removed or moved).
+*/
+public class CoordMap {
+
+    /** Told about each room and its coordinates. */
+    public interface RoomAt {
+        /**
+        * @param room the Room
+        * @param x x coordinate
+        * @param y y coordinate
+        */
+        void accept(Room room, int x, int y);
+    }
+
+    private static final int MIN_CAPACITY = 16;
+
+    /* Room to coordinates */
+    private Room[] rooms;
+    private long[] coords;
+    private int size;
+    /* Coordinates to (slot in rooms + 1), one entry per room, or 0 for
+    * empty slots */
+    private int[] placed;
+
+    public CoordMap() {
+        clear();
+    }
+
+    /**
+    * @param x x coordinate
+    * @param y y coordinate
+    * @return both coordinates in one long
+    */
+    public static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    /**
+    * @param packed coordinates from pack()
+    * @return x coordinate
+    */
+    public static int x(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    /**
+    * @param packed coordinates from pack()
+    * @return y coordinate
+    */
+    public static int y(long packed) {
+        return (int) packed;
+    }
+
+    /**
+    * @return number of rooms with coordinates
+    */
+    public int size() {
+        return size;
+    }
+
+    /**
+    * @param room Room to look up
+    * @return true if room has coordinates
+    */
+    public boolean containsKey(Room room) {
+        return room != null && rooms[roomSlot(room)] != null;
+    }
+
+    /**
+    * @param room Room to look up
+    * @param otherwise value to return if room has no coordinates
+    * @return packed coordinates of room
+    */
+    public long get(Room room, long otherwise) {
+        if (room == null) {
+            return otherwise;
+        }
+        int i = roomSlot(room);
+        return (rooms[i] == null) ? otherwise : coords[i];
+    }
+
+    /**
+    * @param x x coordinate
+    * @param y y coordinate
+    * @return the Room at (x, y), or null if there is none
+    */
+    public Room roomAt(int x, int y) {
+        int at = placed[placeSlot(pack(x, y))];
+        return (at == 0) ? null : rooms[at - 1];
+    }
+
+    /** Set the coordinates of a room.
+    * @param room Room to place
+    * @param x x coordinate
+    * @param y y coordinate
+    */
+    public void put(Room room, int x, int y) {
+        long p = pack(x, y);
+        int i = roomSlot(room);
+        if (rooms[i] == null) {
+            rooms[i] = room;
+            coords[i] = p;
+            if (++size * 2 > rooms.length) {
+                grow();
+                return;
+            }
+        } else {
+            unplace(i);
+            coords[i] = p;
+        }
+        placed[freeSlot(p)] = i + 1;
+    }
+
+    /** Forget the coordinates of a room.
+    * @param room Room to forget
+    * @return true if room had coordinates
+    */
+    public boolean remove(Room room) {
+        int i = roomSlot(room);
+        if (rooms[i] == null) {
+            return false;
+        }
+        unplace(i);
+        int mask = rooms.length - 1;
+        // shift later entries of the probe sequence back into the gap
+        for (int j = (i + 1) & mask; rooms[j] != null; j = (j + 1) & mask) {
+            int k = hash(rooms[j].getId()) & mask;
+            if ((j > i) ? (k <= i || k > j) : (k <= i && k > j)) {
+                placed[entrySlot(j)] = i + 1;
+                rooms[i] = rooms[j];
+                coords[i] = coords[j];
+                i = j;
+            }
+        }
+        rooms[i] = null;
+        --size;
+        return true;
+    }
+
+    /** Forget every room. */
+    public void clear() {
+        rooms = new Room[MIN_CAPACITY];
+        coords = new long[MIN_CAPACITY];
+        placed = new int[MIN_CAPACITY];
+        size = 0;
+    }
+
+    /** Call action for every room (in no particular order).
+    * @param action told each room and its coordinates
+    */
+    public void forEach(RoomAt action) {
+        Room[] rs = rooms;
+        long[] cs = coords;
+        for (int i = 0; i < rs.length; ++i) {
+            if (rs[i] != null) {
+                action.accept(rs[i], x(cs[i]), y(cs[i]));
+            }
+        }
+    }
+
+    /**
+    * @return a read-only Map view, which makes a new Pair for each lookup
+    */
+    public Map<Room, Pair> asMap() {
+        return new PairView();
+    }
+
+    /* Remove the coordinate entry for the room in slot r */
+    private void unplace(int r) {
+        int i = entrySlot(r);
+        int mask = placed.length - 1;
+        for (int j = (i + 1) & mask; placed[j] != 0; j = (j + 1) & mask) {
+            int k = hash(coords[placed[j] - 1]) & mask;
+            if ((j > i) ? (k <= i || k > j) : (k <= i && k > j)) {
+                placed[i] = placed[j];
+                i = j;
+            }
+        }
+        placed[i] = 0;
+    }
+
+    /* Slot holding room, or the empty slot it would go in */
+    private int roomSlot(Room room) {
+        int mask = rooms.length - 1;
+        int i = hash(room.getId()) & mask;
+        while (rooms[i] != null && rooms[i] != room) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /* Slot holding coordinate p, or the empty slot it would go in */
+    private int placeSlot(long p) {
+        int mask = placed.length - 1;
+        int i = hash(p) & mask;
+        while (placed[i] != 0 && coords[placed[i] - 1] != p) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /* Empty slot for another room at coordinate p */
+    private int freeSlot(long p) {
+        int mask = placed.length - 1;
+        int i = hash(p) & mask;
+        while (placed[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /* Slot holding the coordinate entry for the room in slot r */
+    private int entrySlot(int r) {
+        int mask = placed.length - 1;
+        int i = hash(coords[r]) & mask;
+        while (placed[i] != r + 1) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /* Double both tables (the coordinate table is rebuilt from scratch) */
+    private void grow() {
+        Room[] rs = rooms;
+        long[] cs = coords;
+        rooms = new Room[rs.length * 2];
+        coords = new long[rs.length * 2];
+        placed = new int[rs.length * 2];
+        for (int i = 0; i < rs.length; ++i) {
+            if (rs[i] != null) {
+                int j = roomSlot(rs[i]);
+                rooms[j] = rs[i];
+                coords[j] = cs[i];
+                placed[freeSlot(cs[i])] = j + 1;
+            }
+        }
+    }
+
+    /* Spread ids (which are often consecutive) over the table */
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(long p) {
+        long h = p * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /* Map<Room, Pair> over the tables, for code written against HashMap */
+    private class PairView extends AbstractMap<Room, Pair> {
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return (key instanceof Room) && CoordMap.this.containsKey((Room) key);
+        }
+
+        @Override
+        public Pair get(Object key) {
+            if (!containsKey(key)) {
+                return null;
+            }
+            long p = CoordMap.this.get((Room) key, 0);
+            return new Pair(x(p), y(p));
+        }
+
+        @Override
+        public Set<Map.Entry<Room, Pair>> entrySet() {
+            return new AbstractSet<Map.Entry<Room, Pair>>() {
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Map.Entry<Room, Pair>> iterator() {
+                    return new Iterator<Map.Entry<Room, Pair>>() {
+                        private final Room[] rs = rooms;
+                        private final long[] cs = coords;
+                        private int i = advance(0);
+
+                        private int advance(int from) {
+                            while (from < rs.length && rs[from] == null) {
+                                ++from;
+                            }
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < rs.length;
+                        }
+
+                        @Override
+                        public Map.Entry<Room, Pair> next() {
+                            if (i >= rs.length) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<Room, Pair> e =
+                                    new AbstractMap.SimpleImmutableEntry<Room, Pair>(
+                                    rs[i], new Pair(x(cs[i]), y(cs[i])));
+                            i = advance(i + 1);
+                            return e;
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -1,5 +1,11 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.TextArea;
@@ -28,6 +34,15 @@ public class CrawlGui extends Application {
     private Room startRoom;
     private Player player;
     private Room originalRoot;
+    //tracks changes so saving over the loaded map only writes those
+    private MapJournal journal;
+    private String mapName;
+    //writes saves without blocking the application thread
+    private BackgroundSaver saver;
+    //room coordinates, kept up to date as exits change
+    private BoundsMapper bm;
+    //finds routes for Travel
+    private PathFinder pathFinder;
 
     public static void main(String args) {
         //if something goes wrong with start()
@@ -48,21 +63,20 @@ public class CrawlGui extends Application {
         //getting commend-line parameter
         final Parameters params = getParameters();
         final List<String> parameters = params.getRaw();
-        final String mapName;
         //expect only one argument
         if (parameters.size() == 1) {
             mapName = parameters.get(0);
         } else {
             mapName = "";
         }
-        //loadMap to get start room and player
-        // Use the parameter as filename
-        Object[] map = MapIO.loadMap(mapName);
+        //load the map (and any changes saved since) to get start room
+        // and player. Use the parameter as filename
+        journal = mapName.equals("") ? null : MapJournal.open(mapName);
         //check whether map file can be loaded or not
         if (mapName.equals("")) {
             System.err.println("Usage: java CrawlGui mapname");
             System.exit(1);
-        } else if (map == null) {
+        } else if (journal == null) {
             System.err.println("Unable to load file");
             System.exit(2);
         } else {
@@ -72,25 +86,30 @@ public class CrawlGui extends Application {
             TextArea textArea;
             Button north, east, south, west,
                     look, examine, drop, take,
-                    fight, save;
+                    fight, save, travel;
             Scene scene;
-            BoundsMapper bm;
             Cartographer cartographer;
             //pass the start room and player to separate variables
-            startRoom = (Room) map[1];
-            originalRoot = (Room) map[1];
-            player = (Player) map[0];
+            startRoom = journal.getRoot();
+            originalRoot = journal.getRoot();
+            player = journal.getPlayer();
             //add the player in the start room
             startRoom.enter(player);
             //Call BoundsMapper walk method to add coordinates to all rooms
             bm = new BoundsMapper(originalRoot);
             bm.walk();
+            //keep the coordinates up to date if exits change
+            bm.track();
+            pathFinder = new PathFinder(bm);
             //Pass that BoundsMapper to Cartographer to draw map
-            cartographer = new Cartographer(bm);
+            cartographer = new Cartographer(bm, startRoom);
             //after successful map load, display "You find yourself in "
             // followed by the description of the start room.
             textArea = new TextArea("You found yourself in the "
                     + startRoom.getDescription());
+            //clicking a room on the map selects it
+            cartographer.setOnSelect(room -> textArea.appendText(
+                    "\nSelected " + room.getDescription()));
             //Creating Buttons with their titles
             north = new Button("North");
             south = new Button("South");
@@ -102,23 +121,24 @@ public class CrawlGui extends Application {
             drop = new Button("Drop");
             fight = new Button("Fight");
             save = new Button("Save");
+            travel = new Button("Travel");
             //call movePlayer() helper method in east,north,south,west actions
             //I use lambda expression
             east.setOnAction(e -> {
-                movePlayer(player, "East", textArea);
-                cartographer.update(bm);
+                movePlayer(player, Direction.EAST, textArea);
+                cartographer.update(bm, startRoom);
             });
             north.setOnAction(e -> {
-                movePlayer(player, "North", textArea);
-                cartographer.update(bm);
+                movePlayer(player, Direction.NORTH, textArea);
+                cartographer.update(bm, startRoom);
             });
             south.setOnAction(e -> {
-                movePlayer(player, "South", textArea);
-                cartographer.update(bm);
+                movePlayer(player, Direction.SOUTH, textArea);
+                cartographer.update(bm, startRoom);
             });
             west.setOnAction(e -> {
-                movePlayer(player, "West", textArea);
-                cartographer.update(bm);
+                movePlayer(player, Direction.WEST, textArea);
+                cartographer.update(bm, startRoom);
             });
 
             // display "room_desc - You see:" and list the Things in the room
@@ -128,9 +148,8 @@ public class CrawlGui extends Application {
             look.setOnAction(e -> {
                 String desc = startRoom.getDescription();
                 textArea.appendText("\n" + desc + " - You see:");
-                for (Thing t : startRoom.getContents()) {
-                    textArea.appendText("\n " + t.getShortDescription());
-                }
+                startRoom.forEachThing(t -> textArea.appendText("\n "
+                        + t.getShortDescription()));
                 textArea.appendText("\nYou are carrying:");
                 double total = 0.0;
                 for (Thing t : player.getContents()) {
@@ -152,16 +171,10 @@ public class CrawlGui extends Application {
             examine.setOnAction(e -> {
                 String input = Dialog.displayDialog("Examine "
                         + "What?");
-                boolean foundDesc = false;
-                for (Thing t : startRoom.getContents()) {
-                    if (t.getShortDescription()
-                            .equals(input)) {
-                        textArea.appendText("\n" + t.getDescription());
-                        foundDesc = true;
-                        break;
-                    }
-                }
-                if (!foundDesc && input != null) {
+                Thing t = startRoom.findByShortDescription(input);
+                if (t != null) {
+                    textArea.appendText("\n" + t.getDescription());
+                } else if (input != null) {
                     textArea.appendText("\nNothing found with that name");
                 }
             });
@@ -178,7 +191,7 @@ public class CrawlGui extends Application {
                         player.drop(t);
                         startRoom.enter(t);
                         foundDesc = true;
-                        cartographer.update(bm);
+                        cartographer.update(bm, startRoom);
                         break;
                     }
                 }
@@ -195,9 +208,8 @@ public class CrawlGui extends Application {
             take.setOnAction(e -> {
                 String input = Dialog.displayDialog("Take what?");
                 boolean foundDesc = false;
-                for (Thing t : startRoom.getContents()) {
-                    if (t.getShortDescription().equals(input)
-                            && !(t instanceof Player)) {
+                for (Thing t : startRoom.findAllByShortDescription(input)) {
+                    if (!(t instanceof Player)) {
                         if (!(t instanceof Mob) || !((Mob) t).isAlive()) {
                             if (startRoom.leave(t)) {
                                 player.add(t);
@@ -205,7 +217,7 @@ public class CrawlGui extends Application {
                             }
                         }
                         foundDesc = true;
-                        cartographer.update(bm);
+                        cartographer.update(bm, startRoom);
                         break;
                     }
                 }
@@ -214,11 +226,43 @@ public class CrawlGui extends Application {
                 }
             });
 
+            //travel to the room selected on the map by the shortest way
+            //stop if something prevents the player from leaving a room
+            //and redraw the map once at the end
+            travel.setOnAction(e -> {
+                Room target = cartographer.getSelected();
+                List<Room> path = (target == null) ? null
+                        : pathFinder.path(startRoom, target);
+                if (target == null) {
+                    textArea.appendText("\nClick a room on the map first");
+                } else if (path == null) {
+                    textArea.appendText("\nNo way there");
+                } else if (path.size() == 1) {
+                    textArea.appendText("\nYou are already there");
+                } else {
+                    Room from = startRoom;
+                    for (Room next : path.subList(1, path.size())) {
+                        if (!startRoom.leave(player)) {
+                            textArea.appendText(
+                                    "\nSomething prevents you from leaving");
+                            break;
+                        }
+                        next.enter(player);
+                        startRoom = next;
+                    }
+                    if (startRoom != from) {
+                        textArea.appendText("\nYou Enter "
+                                + startRoom.getDescription());
+                        cartographer.update(bm, startRoom);
+                    }
+                }
+            });
+
             //adding all buttons into allBtn[] array
             //will pass this to disableAllBtns() method
             Button allBtn[] = {north, east, south, west, look, drop, fight,
                     save,
-                    examine, take};
+                    examine, take, travel};
             //call diaplayDialog() from Dialog class to know Fight what
             //if alive Critter found in the room, fight that Critter
             //if Critter dead, display "You won"
@@ -226,35 +270,54 @@ public class CrawlGui extends Application {
             // call disableAllBtns() to disable all buttons
             fight.setOnAction(e -> {
                 String input = Dialog.displayDialog("Fight what?");
-                for (Thing t : startRoom.getContents()) {
-                    if (t.getShortDescription().equals(input)
-                            && t instanceof Critter
+                for (Thing t : startRoom.findAllByShortDescription(input)) {
+                    if (t instanceof Critter
                             && ((Critter) t).isAlive()) {
                         player.fight((Critter) t);
+                        //health is saved with the room
+                        startRoom.markDirty();
                         if (player.getHealth() > 0) {
                             textArea.appendText("\nYou won");
-                            cartographer.update(bm);
+                            cartographer.update(bm, startRoom);
                         } else {
                             textArea.appendText("\nGame over");
-                            cartographer.update(bm);
+                            cartographer.update(bm, startRoom);
                             disableAllBtns(true, allBtn);
                         }
                     }
                 }
             });
 
+            //saves are written in the background so play can carry on:
+            //only a snapshot of the map is taken here. Progress and the
+            //result ("Saved" or "Unable to save") appear in the text area
+            saver = new BackgroundSaver(Platform::runLater,
+                    new BackgroundSaver.Listener() {
+                @Override
+                public void progress(String target, double fraction) {
+                    if (fraction < 1) {
+                        textArea.appendText("\nSaving " + target + " "
+                                + Math.round(fraction * 100) + "%");
+                    }
+                }
+
+                @Override
+                public void finished(String target, boolean ok) {
+                    textArea.appendText(ok ? "\nSaved" : "\nUnable to save");
+                }
+            });
+
             //call diaplayDialog() from Dialog class to know Save filename
-            //pass the current room and filename to MapIO.saveMap()
-            //display "Saved" if success
-            //display "Unable to save" if not success
+            //saving over the loaded map only appends the changed rooms to
+            //its journal, otherwise the whole map is written to the file
+            //saving again while a save is being written is queued
             save.setOnAction(e -> {
                 String input = Dialog.displayDialog("Save filename?");
-                if (MapIO.saveMap(originalRoot, input)) {
-                    textArea.appendText("\nSaved");
-                } else {
+                if (input == null) {
                     textArea.appendText("\nUnable to save");
+                } else if (!saver.save(input, () -> snapshot(input))) {
+                    textArea.appendText("\nSave queued");
                 }
-
             });
 
             //Use GridPane for buttons
@@ -269,6 +332,7 @@ public class CrawlGui extends Application {
             gridPane.add(save, 0, 7);
             gridPane.add(examine, 1, 4);
             gridPane.add(take, 1, 5);
+            gridPane.add(travel, 1, 6);
 
             //set the cartographer to stackpane to get center position
             StackPane stackPane = new StackPane();
@@ -288,21 +352,68 @@ public class CrawlGui extends Application {
 
     }
 
+    /**
+     * Finish writing any saves before the program exits
+     */
+    @Override
+    public void stop() throws Exception {
+        if (saver != null && !saver.finish(60000)) {
+            System.err.println("Unable to save");
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (pathFinder != null) {
+            pathFinder.close();
+        }
+        if (bm != null) {
+            bm.untrack();
+        }
+    }
+
+    /**
+     * Take a snapshot of the map for saving to filename: the changed rooms
+     * if it is the loaded map, otherwise the whole map
+     */
+    private BackgroundSaver.Job snapshot(String filename) {
+        if (sameFile(filename, mapName)) {
+            return journal.prepareSave();
+        }
+        MapImage image = MapImage.of(originalRoot);
+        return progress -> image.save(filename, progress);
+    }
+
+    /**
+     * Do two filenames name the same file (however they are written)?
+     */
+    private static boolean sameFile(String a, String b) {
+        try {
+            Path p = Paths.get(a);
+            Path q = Paths.get(b);
+            if (Files.exists(p) && Files.exists(q)) {
+                return Files.isSameFile(p, q);
+            }
+            return p.toAbsolutePath().normalize()
+                    .equals(q.toAbsolutePath().normalize());
+        } catch (IOException | InvalidPathException ex) {
+            return false;
+        }
+    }
+
     /**
      * Player move to other room if player leave failed, show "Something
      * prevents you from leaving" if player leave the room from wrong exit, show
      * "No door that way" if player success moving to another room, show "You
      * Enter " with the room description
      */
-    private void movePlayer(Player player, String direction,
+    private void movePlayer(Player player, Direction direction,
             TextArea textArea) {
         //if player leave success
         if (!startRoom.leave(player)) {
             textArea.appendText(
                     "\nSomething prevents you from leaving");
-        } else if (startRoom.getExits().containsKey
-                (direction)) {
-            Room destination = startRoom.getExits().get(direction);
+        } else if (startRoom.getExit(direction) != null) {
+            Room destination = startRoom.getExit(direction);
             textArea.appendText("\nYou Enter " + destination
                     .getDescription());
             //enter to desitination room
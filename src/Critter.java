@@ -90,6 +90,15 @@ public class Critter extends Thing implements Lootable, Mob {
         return mob instanceof Explorer;
     }
 
+    /**
+     * @return Explorer.class (the Mobs wantsToFight is true for), or null
+     *         for subclasses, which may override wantsToFight
+     */
+    @Override
+    public Class<?> hostileTo() {
+        return (getClass() == Critter.class) ? Explorer.class : null;
+    }
+
     /**
      * Is the current Mob health above zero?
      */
@@ -124,8 +133,9 @@ public class Critter extends Thing implements Lootable, Mob {
     */
     @Override
     public String repr() {
-        return "C;" + String.format("%.5f", value) + ';' + health+';' 
-                + getShort() + ';' + getLong();
+        StringBuilder sb = new StringBuilder();
+        ThingCodec.CRITTER.encode(this, sb);
+        return sb.toString();
     }    
     
     /** Factory to create Critter from a String
@@ -137,16 +147,6 @@ public class Critter extends Thing implements Lootable, Mob {
         if (encoded == null) {
             return null;
         }
-        String[] toks = encoded.split(";");
-        if (toks.length != 5) {
-            return null;
-        }
-        try {
-            double val = Double.parseDouble(toks[1]);
-            int health = Integer.parseInt(toks[2]);
-            return new Critter(toks[3],toks[4],val, health);
-        } catch (NumberFormatException nfe) {
-            return null;
-        }    
+        return ThingCodec.decode(ThingCodec.CRITTER, ThingFields.of(encoded));
     }
 }
@@ -0,0 +1,79 @@
+/** The four compass exits, which {@link Room Room}s keep in slots of
+* their own rather than in a map from labels.
+* <br />Declared in order of label, so the slots list in the same order
+* as a sorted map of labels would. On the map, North is towards smaller y
+* (screen coordinates).
+*/
+public enum Direction {
+    EAST("East", 1, 0),
+    NORTH("North", 0, -1),
+    SOUTH("South", 0, 1),
+    WEST("West", -1, 0);
+
+    private final String label;
+    private final int dx, dy;
+
+    Direction(String label, int dx, int dy) {
+        this.label = label;
+        this.dx = dx;
+        this.dy = dy;
+    }
+
+    /**
+    * @return the exit label ("North" etc.)
+    */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+    * @return change in x coordinate going this way
+    */
+    public int dx() {
+        return dx;
+    }
+
+    /**
+    * @return change in y coordinate going this way
+    */
+    public int dy() {
+        return dy;
+    }
+
+    /**
+    * @return the way back
+    */
+    public Direction opposite() {
+        switch (this) {
+        case EAST:
+            return WEST;
+        case NORTH:
+            return SOUTH;
+        case SOUTH:
+            return NORTH;
+        default:
+            return EAST;
+        }
+    }
+
+    /**
+    * @param label an exit label (case sensitive)
+    * @return the Direction with that label, or null if it is not one of
+    *     the four
+    * @throws NullPointerException if label is null
+    */
+    public static Direction of(String label) {
+        switch (label) {
+        case "East":
+            return EAST;
+        case "North":
+            return NORTH;
+        case "South":
+            return SOUTH;
+        case "West":
+            return WEST;
+        default:
+            return null;
+        }
+    }
+}
@@ -0,0 +1,438 @@
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+
+/** How many exits it takes to get from each room to a target room (the
+* player's, say), for critters which chase or run away.
+* <br />Only rooms within a given radius of the target have distances.
+* The field follows the map: when exits are added or removed, and when
+* the target moves, only the rooms whose distance changes (and their
+* neighbours) are looked at again.
+* <br />Exits only go one way, so the field keeps a list of the exits into
+* every room it has seen, found by walking the whole map once when it is
+* made and kept up to date from then on. Per-room data is kept in arrays,
+* indexed through a table hashed on {@link Room#getId Room ids}.
+* Close the field to stop it listening for changes.
+*/
+public class DistanceField implements Closeable {
+    /** Distance of rooms beyond the radius (or which can't reach the target) */
+    public static final int FAR = Integer.MAX_VALUE;
+
+    private final int radius;
+    private final RoomIndex index = new RoomIndex();
+    private int target;
+    /* Per room: distance, number of exits to rooms one step closer, and
+    * the rooms with exits into it (with repeats for parallel exits)
+    */
+    private int[] dist = new int[0];
+    private int[] support = new int[0];
+    private int[][] in = new int[0][];
+    private int[] inCount = new int[0];
+    /* Rooms already handled in the current pass are marked with stamp */
+    private int[] mark = new int[0];
+    private int stamp;
+    private int touched;
+    private final RoomListener listener;
+
+    /**
+    * @param root a room of the map (every room reachable from it is indexed)
+    * @param target room to measure distances to
+    * @param radius greatest distance worked out
+    */
+    public DistanceField(Room root, Room target, int radius) {
+        this.radius = radius;
+        scan(root);
+        scan(target);
+        this.target = index.indexOf(target);
+        touched = 0;
+        settle(new long[] {entry(0, this.target)}, new IntList());
+        listener = new RoomListener() {
+            @Override
+            public void roomDirty(Room room) {
+            }
+
+            @Override
+            public void exitAdded(Room room, String label, Room to) {
+                added(room, to);
+            }
+
+            @Override
+            public void exitRemoved(Room room, String label, Room to) {
+                removed(room, to);
+            }
+        };
+        Room.addRoomListener(listener);
+    }
+
+    /**
+    * @param room a Room
+    * @return number of exits from room to the target, or FAR if that is
+    *     more than the radius
+    */
+    public synchronized int distance(Room room) {
+        int i = index.indexOf(room);
+        return (i < 0) ? FAR : dist[i];
+    }
+
+    /**
+    * @return the room distances are measured to
+    */
+    public synchronized Room getTarget() {
+        return index.room(target);
+    }
+
+    /**
+    * @return greatest distance worked out
+    */
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+    * @return number of rooms looked at by the last change
+    */
+    public synchronized int touched() {
+        return touched;
+    }
+
+    /** Measure distances to a different room.
+    * Cheapest when it is next to the old target.
+    * @param room the new target
+    */
+    public synchronized void moveTarget(Room room) {
+        int t = add(room);
+        if (t == target) {
+            return;
+        }
+        int old = target;
+        target = t;
+        touched = 0;
+        settle(new long[] {entry(0, t)}, new IntList());
+        support[old] = 0;
+        IntList seeds = new IntList();
+        seeds.add(old);
+        raise(seeds);
+    }
+
+    /**
+    * @param from a Room
+    * @return label of an exit from it to a room closer to the target, or
+    *     null if from is the target or out of range
+    */
+    public synchronized String toward(Room from) {
+        int i = index.indexOf(from);
+        if (i < 0 || dist[i] == FAR || i == target) {
+            return null;
+        }
+        for (Map.Entry<String, Room> e : from.getExits().entrySet()) {
+            int j = index.indexOf(e.getValue());
+            if (j >= 0 && dist[j] == dist[i] - 1) {
+                return e.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+    * @param from a Room
+    * @return label of an exit from it to the room furthest from the
+    *     target, or null if there is nowhere further away to go
+    */
+    public synchronized String away(Room from) {
+        int here = distance(from);
+        String best = null;
+        long bestDist = here;
+        for (Map.Entry<String, Room> e : from.getExits().entrySet()) {
+            long d = distance(e.getValue());
+            if (d > bestDist) {
+                bestDist = d;
+                best = e.getKey();
+            }
+        }
+        return best;
+    }
+
+    /** Stop following changes to the map. */
+    @Override
+    public void close() {
+        Room.removeRoomListener(listener);
+    }
+
+    /* Index every room reachable from start, with the exits into it */
+    private void scan(Room start) {
+        if (index.indexOf(start) >= 0) {
+            return;
+        }
+        ArrayDeque<Room> todo = new ArrayDeque<Room>();
+        todo.add(start);
+        add(start);
+        while (!todo.isEmpty()) {
+            Room r = todo.poll();
+            int u = index.indexOf(r);
+            r.forEachExit((label, e) -> {
+                int n = index.size();
+                int v = add(e);
+                if (v == n) {
+                    todo.add(e);
+                }
+                link(u, v);
+            });
+        }
+    }
+
+    /* Index of room, giving it one (with no distance) if it is new */
+    private int add(Room room) {
+        int i = index.add(room);
+        if (i >= dist.length) {
+            int n = Math.max(16, dist.length * 2);
+            int old = dist.length;
+            dist = Arrays.copyOf(dist, n);
+            Arrays.fill(dist, old, n, FAR);
+            support = Arrays.copyOf(support, n);
+            in = Arrays.copyOf(in, n);
+            inCount = Arrays.copyOf(inCount, n);
+            mark = Arrays.copyOf(mark, n);
+        }
+        return i;
+    }
+
+    /* Record an exit from u into v */
+    private void link(int u, int v) {
+        int[] a = in[v];
+        if (a == null) {
+            a = in[v] = new int[4];
+        } else if (inCount[v] == a.length) {
+            a = in[v] = Arrays.copyOf(a, a.length * 2);
+        }
+        a[inCount[v]++] = u;
+    }
+
+    /* Forget one exit from u into v */
+    private void unlink(int u, int v) {
+        int[] a = in[v];
+        for (int i = 0; i < inCount[v]; ++i) {
+            if (a[i] == u) {
+                a[i] = a[--inCount[v]];
+                return;
+            }
+        }
+    }
+
+    private synchronized void added(Room room, Room to) {
+        int u = index.indexOf(room);
+        int v = index.indexOf(to);
+        if (u < 0 && v < 0) {
+            return;                 // some other map
+        }
+        if (u < 0 || v < 0) {
+            // the exit joins rooms the field hasn't seen: index them with
+            // all their exits (this one included) and work out their
+            // distances from their neighbours'
+            int first = index.size();
+            if (u < 0) {
+                scan(room);
+            } else {
+                scan(to);
+                link(u, index.indexOf(to));
+            }
+            touched = 0;
+            settle(seedsFrom(first), new IntList());
+            return;
+        }
+        link(u, v);
+        if (dist[v] >= radius || u == target) {
+            return;
+        }
+        int d = dist[v] + 1;
+        touched = 0;
+        if (d < dist[u]) {
+            settle(new long[] {entry(d, u)}, new IntList());
+        } else if (d == dist[u]) {
+            ++support[u];
+        }
+    }
+
+    private synchronized void removed(Room room, Room to) {
+        int u = index.indexOf(room);
+        int v = index.indexOf(to);
+        if (u < 0 || v < 0) {
+            return;
+        }
+        unlink(u, v);
+        touched = 0;
+        if (dist[u] != FAR && u != target && dist[v] == dist[u] - 1
+                && --support[u] == 0) {
+            IntList seeds = new IntList();
+            seeds.add(u);
+            raise(seeds);
+        }
+    }
+
+    /* Some rooms have lost their last exit one step closer to the target.
+    * Find every room which (only) got closer through them, forget their
+    * distances and work them out again from the rooms around them.
+    */
+    private void raise(IntList seeds) {
+        IntList lost = new IntList();
+        ++stamp;
+        for (int i = 0; i < seeds.size; ++i) {
+            int s = seeds.get(i);
+            if (s != target && dist[s] != FAR && support[s] == 0
+                    && mark[s] != stamp) {
+                mark[s] = stamp;
+                lost.add(s);
+            }
+        }
+        for (int i = 0; i < lost.size; ++i) {
+            int u = lost.get(i);
+            int next = dist[u] + 1;
+            for (int k = 0; k < inCount[u]; ++k) {
+                int w = in[u][k];
+                if (w != target && dist[w] == next && mark[w] != stamp
+                        && --support[w] == 0) {
+                    mark[w] = stamp;
+                    lost.add(w);
+                }
+            }
+        }
+        // best distance for each through rooms which kept theirs
+        long[] seedEntries = new long[lost.size];
+        int n = 0;
+        for (int i = 0; i < lost.size; ++i) {
+            int u = lost.get(i);
+            int best = FAR;
+            for (Room e : index.room(u).getExits().values()) {
+                int v = index.indexOf(e);
+                if (v >= 0 && mark[v] != stamp && dist[v] < best) {
+                    best = dist[v];
+                }
+            }
+            if (best < radius) {
+                seedEntries[n++] = entry(best + 1, u);
+            }
+        }
+        for (int i = 0; i < lost.size; ++i) {
+            dist[lost.get(i)] = FAR;
+        }
+        seedEntries = Arrays.copyOf(seedEntries, n);
+        Arrays.sort(seedEntries);
+        settle(seedEntries, lost);
+    }
+
+    /* Seeds for settle(): each room indexed from first on, at one more
+    * than its closest neighbour (if that is within the radius)
+    */
+    private long[] seedsFrom(int first) {
+        long[] seeds = new long[index.size() - first];
+        int n = 0;
+        for (int u = first; u < index.size(); ++u) {
+            int best = FAR;
+            for (Room e : index.room(u).getExits().values()) {
+                int v = index.indexOf(e);
+                if (v >= 0 && dist[v] < best) {
+                    best = dist[v];
+                }
+            }
+            if (best < radius) {
+                seeds[n++] = entry(best + 1, u);
+            }
+        }
+        seeds = Arrays.copyOf(seeds, n);
+        Arrays.sort(seeds);
+        return seeds;
+    }
+
+    /* Breadth first search outwards (against the exits) from rooms which
+    * may be closer than they were, then recount the exits one step closer
+    * of every room changed (and of the rooms next to them).
+    * seeds: (distance, room) entries in order; changed: rooms already changed
+    */
+    private void settle(long[] seeds, IntList changed) {
+        long[] queue = new long[16];
+        int head = 0;
+        int tail = 0;
+        int s = 0;
+        while (s < seeds.length || head < tail) {
+            long e;
+            if (head == tail || (s < seeds.length && seeds[s] <= queue[head])) {
+                e = seeds[s++];
+            } else {
+                e = queue[head++];
+            }
+            int d = (int) (e >>> 32);
+            int u = (int) e;
+            if (d >= dist[u]) {
+                continue;
+            }
+            dist[u] = d;
+            changed.add(u);
+            if (d >= radius) {
+                continue;
+            }
+            for (int k = 0; k < inCount[u]; ++k) {
+                int w = in[u][k];
+                if (d + 1 < dist[w]) {
+                    if (tail == queue.length) {
+                        if (head > 0) {
+                            System.arraycopy(queue, head, queue, 0, tail - head);
+                            tail -= head;
+                            head = 0;
+                        } else {
+                            queue = Arrays.copyOf(queue, queue.length * 2);
+                        }
+                    }
+                    queue[tail++] = entry(d + 1, w);
+                }
+            }
+        }
+        ++stamp;
+        for (int i = 0; i < changed.size; ++i) {
+            int u = changed.get(i);
+            recount(u);
+            for (int k = 0; k < inCount[u]; ++k) {
+                recount(in[u][k]);
+            }
+        }
+    }
+
+    /* Count the exits from u one step closer to the target (once a pass) */
+    private void recount(int u) {
+        if (mark[u] == stamp) {
+            return;
+        }
+        mark[u] = stamp;
+        ++touched;
+        int c = 0;
+        if (u != target && dist[u] != FAR) {
+            for (Room e : index.room(u).getExits().values()) {
+                int v = index.indexOf(e);
+                if (v >= 0 && dist[v] == dist[u] - 1) {
+                    ++c;
+                }
+            }
+        }
+        support[u] = c;
+    }
+
+    private static long entry(int d, int room) {
+        return ((long) d << 32) | room;
+    }
+
+    /* Growable list of ints */
+    private static final class IntList {
+        int[] items = new int[16];
+        int size;
+
+        void add(int i) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = i;
+        }
+
+        int get(int i) {
+            return items[i];
+        }
+    }
+}
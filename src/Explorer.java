@@ -42,8 +42,9 @@ public class Explorer extends Player {
     */
     @Override
     public String repr() {
-            // does not save inventory
-        return "E;" + getHealth() + ';' + getShort() + ';' + getLong(); 
+        StringBuilder sb = new StringBuilder();
+        ThingCodec.EXPLORER.encode(this, sb);
+        return sb.toString();
     }
 
     @Override
@@ -52,6 +53,15 @@ public class Explorer extends Player {
                 ? " with " + getHealth() + " health" : "(fainted)");
     }
     
+    /**
+    * @return Void.class (Explorers never want to fight), or null for
+    *     subclasses, which may override wantsToFight
+    */
+    @Override
+    public Class<?> hostileTo() {
+        return (getClass() == Explorer.class) ? Void.class : null;
+    }
+
     /** 
     * @return 1
     * @inheritDoc
@@ -70,15 +80,6 @@ public class Explorer extends Player {
         if (encoded == null) {
             return null;
         }
-        String[] toks=encoded.split(";");
-        if (toks.length != 4) {
-            return null;
-        }
-        try {
-            int health = Integer.parseInt(toks[1]);
-            return new Explorer(toks[2],toks[3],health);
-        } catch (NumberFormatException nfe) {
-            return null;
-        }    
+        return ThingCodec.decode(ThingCodec.EXPLORER, ThingFields.of(encoded));
     }    
 }
@@ -0,0 +1,449 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/** Compressed map files made of independently compressed blocks of rooms.
+* <br />Rooms are numbered in the order used by
+* {@link MapIO#saveMap MapIO.saveMap} (start room first) and split into
+* blocks of consecutive rooms. Each block holds, for each of its rooms,
+* the same lines saveMap would write for it:
+* <code>description</code>, <code>number_of_exits</code>,
+* <code>target name</code> lines, <code>number_of_items</code> and
+* <code>repr</code> lines. Each block is compressed on its own with
+* deflate.
+* <br />The file ends with an index giving the first room, offset and
+* lengths of every block, followed by a fixed size trailer, so a reader
+* can find and decompress just the blocks it needs (see
+* {@link Reader Reader}), or decompress all of them in parallel.
+* <br />Layout:
+* <ol><li>magic <code>CRWZ</code>, format version byte</li>
+*     <li>compressed blocks</li>
+*     <li>for each block: first room (int), compressed length (int),
+*         uncompressed length (int), offset (long)</li>
+*     <li>trailer: number of rooms (int), number of blocks (int),
+*         index offset (long), magic <code>CRWZ</code></li>
+* </ol>
+*/
+public class MapArchive {
+    /** First (and last) bytes of every archive */
+    static final byte[] MAGIC = {'C', 'R', 'W', 'Z'};
+    /** Current format version */
+    static final int VERSION = 1;
+    /** Rooms per block unless told otherwise */
+    public static final int DEFAULT_BLOCK = 4096;
+    /* Bytes per index entry and in the trailer */
+    private static final int ENTRY = 20;
+    private static final int TRAILER = 20;
+    /* Fewest bytes a room's lines can take ("\n0\n0\n"), and most bytes
+    * deflate can make from one compressed byte
+    */
+    private static final int MIN_ROOM = 5;
+    private static final int MAX_RATIO = 1032;
+
+    private MapArchive() {
+    }
+
+    /** Write all rooms reachable from root.
+    * @param root Start room
+    * @param filename Filename to write to
+    * @param roomsPerBlock rooms in each compressed block
+    * @return true if successful
+    */
+    public static boolean save(Room root, String filename,
+            int roomsPerBlock) {
+        if (roomsPerBlock < 1) {
+            return false;
+        }
+        MapIO.SeqWalker sw = new MapIO.SeqWalker(root);
+        sw.walk();
+        List<Room> rooms = new ArrayList<Room>(sw.seq);
+        Map<Room, Integer> idm = new HashMap<Room, Integer>();
+        for (Room r : rooms) {
+            idm.put(r, idm.size());
+        }
+        int blocks = (rooms.size() + roomsPerBlock - 1) / roomsPerBlock;
+        ByteBuffer index = ByteBuffer.allocate(blocks * ENTRY + TRAILER);
+        Deflater deflater = new Deflater();
+        try (FileChannel ch = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(ch, ByteBuffer.wrap(MAGIC));
+            writeFully(ch, ByteBuffer.wrap(new byte[] {VERSION}));
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            ByteArrayOutputStream packed = new ByteArrayOutputStream();
+            ThingCodec.LineWriter things = new ThingCodec.LineWriter();
+            for (int b = 0; b < blocks; ++b) {
+                int first = b * roomsPerBlock;
+                int end = Math.min(rooms.size(), first + roomsPerBlock);
+                raw.reset();
+                Writer w = new OutputStreamWriter(raw,
+                        Charset.defaultCharset());
+                for (int i = first; i < end; ++i) {
+                    MapIO.writeRoom(rooms.get(i), idm, things, w);
+                }
+                w.flush();
+                packed.reset();
+                deflater.reset();
+                DeflaterOutputStream dos = new DeflaterOutputStream(packed,
+                        deflater);
+                raw.writeTo(dos);
+                dos.finish();
+                index.putInt(first).putInt(packed.size())
+                        .putInt(raw.size()).putLong(ch.position());
+                writeFully(ch, ByteBuffer.wrap(packed.toByteArray()));
+            }
+            long indexAt = ch.position();
+            index.putInt(rooms.size()).putInt(blocks).putLong(indexAt)
+                    .put(MAGIC);
+            index.flip();
+            writeFully(ch, index);
+        } catch (IOException ex) {
+            return false;
+        } finally {
+            deflater.end();
+        }
+        return true;
+    }
+
+    /** Read a whole archive, decompressing blocks in parallel.
+    * @param filename Filename to read from
+    * @return the same as {@link MapIO#loadMap MapIO.loadMap}
+    */
+    public static Object[] load(String filename) {
+        try (Reader in = open(filename)) {
+            int blocks = in.blocks();
+            Room[] rooms = new Room[in.rooms()];
+            if (rooms.length == 0) {
+                return null;
+            }
+            byte[][] data = new byte[blocks][];
+            int[][] marks = new int[blocks][];
+            Player[] players = new Player[blocks];
+                // first make every room, then connect them up
+            boolean ok = IntStream.range(0, blocks).parallel()
+                    .allMatch(b -> in.makeRooms(b, rooms, data, marks));
+            ok = ok && IntStream.range(0, blocks).parallel()
+                    .allMatch(b -> in.fillRooms(b, rooms, data[b],
+                            marks[b], players));
+            if (!ok) {
+                return null;
+            }
+            Object[] res = new Object[2];
+            for (Player p : players) {
+                if (p != null) {
+                    res[0] = p;
+                }
+            }
+            res[1] = rooms[0];
+            return res;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /** Open an archive for reading blocks on demand.
+    * @param filename Filename to read from
+    * @return reader for the archive
+    * @throws IOException if the file can not be read or is not an archive
+    */
+    public static Reader open(String filename) throws IOException {
+        return new Reader(FileChannel.open(Paths.get(filename),
+                StandardOpenOption.READ));
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer bb)
+            throws IOException {
+        while (bb.hasRemaining()) {
+            ch.write(bb);
+        }
+    }
+
+    /** Random access to the blocks of an archive.
+    * Safe to use from several threads at once.
+    */
+    public static class Reader implements Closeable {
+        private final FileChannel channel;
+        private final int rooms;
+        private final int[] first, packed, unpacked;
+        private final long[] offset;
+
+        private Reader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            try {
+                long size = channel.size();
+                if (size < MAGIC.length + 1 + TRAILER) {
+                    throw new IOException("Not a map archive");
+                }
+                ByteBuffer head = read(0, MAGIC.length + 1);
+                ByteBuffer tail = read(size - TRAILER, TRAILER);
+                rooms = tail.getInt();
+                int blocks = tail.getInt();
+                long indexAt = tail.getLong();
+                for (byte m : MAGIC) {
+                    if (head.get() != m || tail.get() != m) {
+                        throw new IOException("Not a map archive");
+                    }
+                }
+                if (head.get() != VERSION || rooms < 0 || blocks < 0
+                        || indexAt + (long) blocks * ENTRY
+                        != size - TRAILER) {
+                    throw new IOException("Unsupported map archive");
+                }
+                ByteBuffer index = read(indexAt, blocks * ENTRY);
+                first = new int[blocks];
+                packed = new int[blocks];
+                unpacked = new int[blocks];
+                offset = new long[blocks];
+                long total = 0;
+                for (int b = 0; b < blocks; ++b) {
+                    first[b] = index.getInt();
+                    packed[b] = index.getInt();
+                    unpacked[b] = index.getInt();
+                    offset[b] = index.getLong();
+                    if (!entryOk(b, indexAt)) {
+                        throw new IOException("Corrupt map archive");
+                    }
+                    total += unpacked[b];
+                }
+                // every block starts with its first room, and a room takes
+                // at least MIN_ROOM bytes
+                if ((blocks > 0 && first[0] != 0)
+                        || (blocks > 0 && first[blocks - 1] >= rooms)
+                        || (blocks == 0 && rooms > 0)
+                        || (long) rooms * MIN_ROOM > total) {
+                    throw new IOException("Corrupt map archive");
+                }
+            } catch (IOException ex) {
+                channel.close();
+                throw ex;
+            } catch (RuntimeException ex) {
+                channel.close();
+                throw new IOException("Corrupt map archive", ex);
+            }
+        }
+
+        /* Are the sizes and position of block b possible (and its first
+        * room after the previous block's)?
+        */
+        private boolean entryOk(int b, long indexAt) {
+            return packed[b] >= 0 && unpacked[b] >= 0
+                    && unpacked[b] <= (long) packed[b] * MAX_RATIO + MAX_RATIO
+                    && offset[b] >= MAGIC.length + 1
+                    && offset[b] + packed[b] <= indexAt
+                    && (b == 0 || first[b] > first[b - 1]);
+        }
+
+        /**
+        * @return number of rooms in the archive
+        */
+        public int rooms() {
+            return rooms;
+        }
+
+        /**
+        * @return number of blocks in the archive
+        */
+        public int blocks() {
+            return first.length;
+        }
+
+        /**
+        * @param block block number
+        * @return number of the first room in the block
+        */
+        public int firstRoom(int block) {
+            return first[block];
+        }
+
+        /**
+        * @param room room number
+        * @return number of the block holding that room
+        * @throws IndexOutOfBoundsException for a room not in the archive
+        */
+        public int blockOf(int room) {
+            if (room < 0 || room >= rooms) {
+                throw new IndexOutOfBoundsException("Room " + room);
+            }
+            int b = Arrays.binarySearch(first, room);
+            return (b >= 0) ? b : -b - 2;
+        }
+
+        /** Decompress one block.
+        * @param block block number
+        * @return the saveMap lines for each room in the block
+        * @throws IOException if the block can not be read or is corrupt
+        */
+        public byte[] inflate(int block) throws IOException {
+            ByteBuffer in = read(offset[block], packed[block]);
+            byte[] out = new byte[unpacked[block]];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(in.array(), 0, packed[block]);
+                int n = 0;
+                while (n < out.length && !inflater.finished()) {
+                    int got = inflater.inflate(out, n, out.length - n);
+                    if (got == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    n += got;
+                }
+                if (n != out.length) {
+                    throw new IOException("Truncated block " + block);
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("Corrupt block " + block, ex);
+            } finally {
+                inflater.end();
+            }
+            return out;
+        }
+
+        /** The saveMap lines for a single room (decompresses one block).
+        * @param room room number
+        * @return description, exit count, exits, item count and items
+        * @throws IOException if the block can not be read or is corrupt
+        */
+        public List<String> room(int room) throws IOException {
+            int b = blockOf(room);
+            MapScanner in = new MapScanner(inflate(b));
+            List<String> lines = new ArrayList<String>();
+            try {
+                for (int i = first[b]; i <= room; ++i) {
+                    lines.clear();
+                    lines.add(nextLine(in));
+                    for (int part = 0; part < 2; ++part) {
+                        lines.add(nextLine(in));
+                        int count = in.lineInt();
+                        for (int j = 0; j < count; ++j) {
+                            lines.add(nextLine(in));
+                        }
+                    }
+                }
+            } catch (NumberFormatException nfe) {
+                throw new IOException("Corrupt block " + b, nfe);
+            }
+            return lines;
+        }
+
+        private static String nextLine(MapScanner in) throws IOException {
+            if (!in.next()) {
+                throw new IOException("Truncated block");
+            }
+            return in.line();
+        }
+
+        /* Number of rooms in block b */
+        private int size(int b) {
+            return ((b + 1 < first.length) ? first[b + 1] : rooms) - first[b];
+        }
+
+        /* Inflate block b, create its rooms and remember where each
+        * room's lines start.
+        */
+        private boolean makeRooms(int b, Room[] out, byte[][] data,
+                int[][] marks) {
+            try {
+                data[b] = inflate(b);
+                MapScanner in = new MapScanner(data[b]);
+                int[] at = new int[size(b)];
+                for (int i = 0; i < at.length; ++i) {
+                    if (!in.next()) {
+                        return false;
+                    }
+                    out[first[b] + i] = new Room(in.line());
+                    at[i] = in.mark();
+                    for (int part = 0; part < 2; ++part) {
+                        if (!in.next()) {
+                            return false;
+                        }
+                        int count = in.lineInt();
+                        for (int j = 0; j < count; ++j) {
+                            if (!in.next()) {
+                                return false;
+                            }
+                        }
+                    }
+                }
+                marks[b] = at;
+                return true;
+            } catch (IOException | IndexOutOfBoundsException
+                    | NumberFormatException ex) {
+                return false;
+            }
+        }
+
+        /* Add exits and contents to the rooms of block b */
+        private boolean fillRooms(int b, Room[] rooms, byte[] data,
+                int[] marks, Player[] players) {
+            MapScanner in = new MapScanner(data);
+            try {
+                for (int i = 0; i < marks.length; ++i) {
+                    Room r = rooms[first[b] + i];
+                    in.seek(marks[i]);
+                    in.next();
+                    int exitcount = in.lineInt();
+                    for (int j = 0; j < exitcount; ++j) {
+                        in.next();
+                        int pos = in.indexOfSpace();
+                        if (pos < 0) {
+                            return false;
+                        }
+                        int target = in.intAt(0, pos);
+                        r.addExit(in.textFrom(pos + 1), rooms[target]);
+                    }
+                    in.next();
+                    int itemcount = in.lineInt();
+                    for (int j = 0; j < itemcount; ++j) {
+                        in.next();
+                        Thing t = in.thing();
+                        if (t == null) {
+                            return false;
+                        }
+                        if (t instanceof Player) {
+                            players[b] = (Player) t;
+                        } else {
+                            r.enter(t);
+                        }
+                    }
+                }
+                return true;
+            } catch (IOException | IndexOutOfBoundsException
+                    | NumberFormatException | CrawlException ex) {
+                return false;
+            }
+        }
+
+        private ByteBuffer read(long at, int length) throws IOException {
+            ByteBuffer bb = ByteBuffer.allocate(length);
+            while (bb.hasRemaining()) {
+                if (channel.read(bb, at + bb.position()) < 0) {
+                    throw new IOException("Unexpected end of archive");
+                }
+            }
+            bb.flip();
+            return bb;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
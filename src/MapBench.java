@@ -0,0 +1,261 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/** Command line timings for the map routines in {@link MapIO MapIO}.
+* <br />Usage: java MapBench [rooms] [rounds]
+* <br />Builds a square grid map of (about) the given number of rooms
+* with {@link MapGenerator MapGenerator},
+* saves it to a temporary file and reports the time taken by each loader
+* (and by a walk over a paged {@link RoomStore RoomStore}), the heap
+* kept by a loaded map with and without the {@link StringPool StringPool},
+* by saveMap, by a delta save with {@link MapJournal MapJournal} and by
+* the {@link ThingCodec ThingCodec}s.
+*/
+public class MapBench {
+
+    public static void main(String[] args) throws IOException {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 250000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        int side = (int) Math.ceil(Math.sqrt(size));
+        Room root = new MapGenerator(MapGenerator.Shape.GRID, side, side, 1)
+                .build();
+        File f = File.createTempFile("crawl", ".map");
+        f.deleteOnExit();
+        String name = f.getPath();
+        if (!MapIO.saveMap(root, name)) {
+            System.err.println("Unable to save " + name);
+            System.exit(2);
+        }
+        File b = File.createTempFile("crawl", ".bmap");
+        b.deleteOnExit();
+        String bname = b.getPath();
+        if (!MapIO.saveBinaryMap(root, bname)) {
+            System.err.println("Unable to save " + bname);
+            System.exit(2);
+        }
+        File z = File.createTempFile("crawl", ".zmap");
+        z.deleteOnExit();
+        String zname = z.getPath();
+        if (!MapArchive.save(root, zname, MapArchive.DEFAULT_BLOCK)) {
+            System.err.println("Unable to save " + zname);
+            System.exit(2);
+        }
+        System.out.printf("text map:   %s (%.1f MB)%n", name, f.length() / 1e6);
+        System.out.printf("binary map: %s (%.1f MB)%n", bname,
+                b.length() / 1e6);
+        System.out.printf("archive:    %s (%.1f MB)%n", zname,
+                z.length() / 1e6);
+        for (int i = 0; i < rounds; ++i) {
+            time("loadMap", () -> MapIO.loadMap(name));
+            time("loadMapFast", () -> MapIO.loadMapFast(name));
+            time("loadMapFast(par)", () -> MapIO.loadMapFast(name, true));
+            time("loadBinaryMap", () -> MapIO.loadBinaryMap(bname));
+            time("MapArchive.load", () -> MapArchive.load(zname));
+        }
+        StringPool pool = StringPool.shared();
+        for (int i = 0; i < rounds; ++i) {
+            StringPool.setShared(null);
+            retained("map(no pool)", () -> MapIO.loadMapFast(name));
+            StringPool.setShared(pool);
+            retained("map(pool)", () -> MapIO.loadMapFast(name));
+        }
+        RoomGraph graph = RoomGraph.of(root);
+        for (int i = 0; i < rounds; ++i) {
+            time("MapWalker", () -> new MapWalker(root).walk());
+            time("RoomGraph.of", () -> RoomGraph.of(root));
+            time("MapWalker(graph)", () -> new MapWalker(graph, root).walk());
+            time("walk(parallel)", () -> new ParallelMapWalker(graph,
+                    root, false).walk());
+            time("walk(ordered)", () -> new ParallelMapWalker(
+                    graph, root, true).walk());
+        }
+        new File(name + RoomStore.SUFFIX).deleteOnExit();
+        for (int i = 0; i < rounds; ++i) {
+            RoomStore store = RoomStore.open(name,
+                    RoomStore.DEFAULT_CAPACITY);
+            time("RoomStore walk", () -> new MapWalker(store.getRoot())
+                    .walk());
+            System.out.printf("%16s %s%n", "", store);
+            store.close();
+        }
+        for (int i = 0; i < rounds; ++i) {
+            long ns = time("saveMap", () -> MapIO.saveMap(root, name));
+            rate(f.length(), ns);
+            ns = time("saveMap(memory)", () -> saveInMemory(root, name));
+            rate(f.length(), ns);
+        }
+        new File(name + MapJournal.SUFFIX).deleteOnExit();
+        MapJournal journal = MapJournal.open(name);
+        Room start = journal.getRoot();
+        for (int i = 0; i < rounds; ++i) {
+                // a handful of changed rooms
+            start.setDescription("start " + i);
+            for (Room r : start.getExits().values()) {
+                r.setDescription("next to start " + i);
+            }
+            time("MapJournal.save", () -> journal.save());
+        }
+        journal.close();
+        List<Thing> things = new ArrayList<Thing>();
+        MapIO.SeqWalker sw = new MapIO.SeqWalker(root);
+        sw.walk();
+        for (Room r : sw.seq) {
+            things.addAll(r.getContents());
+        }
+        List<String> lines = new ArrayList<String>(things.size());
+        for (Thing t : things) {
+            lines.add(t.repr());
+        }
+        for (int i = 0; i < rounds; ++i) {
+            time("encode(format)", () -> encodeLegacy(things));
+            time("encode(codec)", () -> encode(things));
+            time("decode(split)", () -> decodeLegacy(lines));
+            time("decode(codec)", () -> decode(lines));
+        }
+    }
+
+    /* Encode with the repr() code from before ThingCodec */
+    private static long encodeLegacy(List<Thing> things) {
+        long n = 0;
+        for (Thing t : things) {
+            String s;
+            if (t instanceof Treasure) {
+                s = "$;" + String.format("%.5f", ((Treasure) t).getValue())
+                        + ";" + t.getShort();
+            } else if (t instanceof Critter) {
+                Critter c = (Critter) t;
+                s = "C;" + String.format("%.5f", c.getValue()) + ';'
+                        + c.getHealth() + ';' + c.getShort() + ';'
+                        + c.getLong();
+            } else {
+                s = t.repr();
+            }
+            n += s.length();
+        }
+        return n;
+    }
+
+    private static long encode(List<Thing> things) {
+        StringBuilder sb = new StringBuilder();
+        long n = 0;
+        for (Thing t : things) {
+            sb.setLength(0);
+            ThingCodec.append(t, sb);
+            n += sb.length();
+        }
+        return n;
+    }
+
+    /* Decode with the split() code from before ThingCodec */
+    private static int decodeLegacy(List<String> lines) {
+        int n = 0;
+        for (String s : lines) {
+            String[] toks = s.split(";");
+            try {
+                if (toks[0].equals("$") && toks.length == 3) {
+                    new Treasure(toks[2], Double.parseDouble(toks[1]));
+                } else if (toks[0].equals("C") && toks.length == 5) {
+                    new Critter(toks[3], toks[4],
+                            Double.parseDouble(toks[1]),
+                            Integer.parseInt(toks[2]));
+                } else if (toks[0].equals("E") && toks.length == 4) {
+                    new Explorer(toks[2], toks[3],
+                            Integer.parseInt(toks[1]));
+                }
+                ++n;
+            } catch (NumberFormatException nfe) {
+                // skip it
+            }
+        }
+        return n;
+    }
+
+    private static int decode(List<String> lines) {
+        int n = 0;
+        for (String s : lines) {
+            if (ThingCodec.decode(s) != null) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    /* Time one run of task, with the heap allocated by this thread while
+    * it ran (work done on other threads is not counted)
+    */
+    static long time(String label, Runnable task) {
+        System.gc();
+        long before = allocated();
+        long t0 = System.nanoTime();
+        task.run();
+        long t1 = System.nanoTime();
+        long bytes = allocated() - before;
+        System.out.printf("%-16s %8.1f ms", label, (t1 - t0) / 1e6);
+        if (bytes >= 0) {
+            System.out.printf(" %10.1f MB allocated", bytes / 1e6);
+        }
+        System.out.println();
+        return t1 - t0;
+    }
+
+    /* Report the heap still in use once what task made is all that is
+    * left of it
+    */
+    private static void retained(String label, Supplier<Object> task) {
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        long before = rt.totalMemory() - rt.freeMemory();
+        Object kept = task.get();
+        System.gc();
+        long after = rt.totalMemory() - rt.freeMemory();
+        System.out.printf("%-16s %8.1f MB retained%n", label,
+                (after - before) / 1e6);
+        Reference.reachabilityFence(kept);
+    }
+
+    /* Print the throughput for writing bytes in ns nanoseconds */
+    private static void rate(long bytes, long ns) {
+        System.out.printf("%16s %8.1f MB/s%n", "", bytes / 1e6 / (ns / 1e9));
+    }
+
+    /* saveMap the way it used to be: build the whole file in memory and
+    * then write it in one go.
+    */
+    private static void saveInMemory(Room root, String filename) {
+        MapIO.SeqWalker sw = new MapIO.SeqWalker(root);
+        sw.walk();
+        Map<Room, Integer> idm = new HashMap<Room, Integer>();
+        for (Room r : sw.seq) {
+            idm.put(r, idm.size());
+        }
+        try {
+            StringWriter sb = new StringWriter();
+            MapIO.writeMap(sw.seq, idm, sb);
+            FileWriter fw = new FileWriter(filename);
+            fw.write(sb.toString());
+            fw.close();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /* Bytes allocated by this thread so far (or -1 if unsupported) */
+    private static long allocated() {
+        java.lang.management.ThreadMXBean tb =
+                java.lang.management.ManagementFactory.getThreadMXBean();
+        if (tb instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) tb)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
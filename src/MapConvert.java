@@ -0,0 +1,60 @@
+import java.io.IOException;
+
+/** Convert map files between the text format of
+* {@link MapIO#saveMap MapIO.saveMap} and the binary format of
+* {@link MapIO#saveBinaryMap MapIO.saveBinaryMap}.
+* <br />Usage: java MapConvert infile outfile
+* <br />The direction is chosen from the input file's header. The player
+* stays in the room it was saved in.
+*/
+public class MapConvert {
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: java MapConvert infile outfile");
+            System.exit(1);
+        }
+        boolean ok;
+        if (BinaryMap.isBinary(args[0])) {
+            ok = binaryToText(args[0], args[1]);
+        } else {
+            ok = textToBinary(args[0], args[1]);
+        }
+        if (!ok) {
+            System.err.println("Unable to convert " + args[0]);
+            System.exit(2);
+        }
+    }
+
+    /** Convert a text map to a binary map.
+    * @param from text map to read
+    * @param to binary map to write
+    * @return true if successful
+    */
+    public static boolean textToBinary(String from, String to) {
+        try (MapScanner in = new MapScanner(from)) {
+            Room[] rooms = MapIO.readRooms(in, null);
+            return (rooms != null) && MapIO.saveBinaryMap(rooms[0], to);
+        } catch (IOException ex) {
+            return false;
+        } catch (IndexOutOfBoundsException ex) {
+            return false;
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+    }
+
+    /** Convert a binary map to a text map.
+    * @param from binary map to read
+    * @param to text map to write
+    * @return true if successful
+    */
+    public static boolean binaryToText(String from, String to) {
+        try {
+            Room[] rooms = BinaryMap.read(from, null);
+            return (rooms != null) && MapIO.saveMap(rooms[0], to);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Makes maps for testing and benchmarks.
+* <br />Rooms are laid out on a width x height grid and joined by
+* "North", "South", "East" and "West" exits in one of several shapes
+* (see {@link Shape Shape}). Rooms hold Treasure and Critters at the
+* chosen rates, and the start room (the top left one) holds an Explorer.
+* <br />Everything about a room is worked out from the seed and the
+* room's number alone, so the same settings always give the same map,
+* and {@link #write write} can stream a map of any size straight to a
+* file without making any Rooms. {@link #build build} makes the same map
+* in memory.
+* <br />Usage: java MapGenerator shape width height seed outfile
+* [treasure critters [hubsize]]
+*/
+public class MapGenerator {
+
+    /** How the rooms are joined. */
+    public enum Shape {
+        /** Every room is joined to all of its neighbours */
+        GRID,
+        /** A maze with exactly one way between any two rooms */
+        MAZE,
+        /** One long corridor snaking back and forth along the rows */
+        CORRIDOR,
+        /** Square blocks of fully joined rooms, with one door between
+        * neighbouring blocks */
+        HUB
+    }
+
+    private static final String[] ADJECTIVES = {"a damp", "a dusty",
+        "a narrow", "a vaulted", "a cold", "a crumbling", "a dark", "a low"};
+    private static final String[] PLACES = {"cellar", "passage", "hall",
+        "chamber", "cave", "crypt", "storeroom", "gallery"};
+    private static final String[] TREASURES = {"copper coin", "lump of coal",
+        "silver ring", "old boot", "gold nugget"};
+    private static final String[] CRITTERS = {"grid bug", "rat", "bat",
+        "newt", "goblin"};
+
+    private final Shape shape;
+    private final int width, height;
+    private final long seed;
+    private double treasure = 0.5;
+    private double critters = 0.25;
+    private int hubSize = 8;
+
+    /**
+    * @param shape how to join the rooms
+    * @param width rooms per row
+    * @param height number of rows
+    * @param seed chooses the maze and the contents
+    * @throws IllegalArgumentException if there would be no rooms or more
+    *     than Integer.MAX_VALUE of them
+    */
+    public MapGenerator(Shape shape, int width, int height, long seed) {
+        if (width < 1 || height < 1
+                || (long) width * height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bad size " + width + "x"
+                    + height);
+        }
+        this.shape = shape;
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 5 && args.length != 7 && args.length != 8) {
+            System.err.println("Usage: java MapGenerator GRID|MAZE|CORRIDOR|HUB"
+                    + " width height seed outfile [treasure critters [hubsize]]");
+            System.exit(1);
+        }
+        MapGenerator gen = new MapGenerator(Shape.valueOf(args[0]),
+                Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                Long.parseLong(args[3]));
+        if (args.length > 5) {
+            gen.setTreasure(Double.parseDouble(args[5]));
+            gen.setCritters(Double.parseDouble(args[6]));
+        }
+        if (args.length > 7) {
+            gen.setHubSize(Integer.parseInt(args[7]));
+        }
+        if (!gen.write(args[4])) {
+            System.err.println("Unable to write " + args[4]);
+            System.exit(2);
+        }
+    }
+
+    /**
+    * @param rate fraction of rooms (other than the start) holding Treasure
+    */
+    public void setTreasure(double rate) {
+        treasure = rate;
+    }
+
+    /**
+    * @param rate fraction of rooms (other than the start) holding a Critter
+    *     (at most 1 - the Treasure rate)
+    */
+    public void setCritters(double rate) {
+        critters = rate;
+    }
+
+    /**
+    * @param size width and height of the blocks in a HUB map
+    */
+    public void setHubSize(int size) {
+        hubSize = Math.max(1, size);
+    }
+
+    /**
+    * @return number of rooms in the map
+    */
+    public int size() {
+        return width * height;
+    }
+
+    /** Make the map in memory.
+    * @return the start room
+    */
+    public Room build() {
+        int n = size();
+        Room[] rooms = new Room[n];
+        for (int i = 0; i < n; ++i) {
+            rooms[i] = new Room(description(i));
+            for (Thing t : contents(i)) {
+                rooms[i].enter(t);
+            }
+        }
+        try {
+            for (int i = 0; i < n; ++i) {
+                int x = i % width;
+                int y = i / width;
+                if (joinedNorth(x, y)) {
+                    Room.makeExitPair(rooms[i], rooms[i - width], "North",
+                            "South");
+                }
+                if (joinedWest(x, y)) {
+                    Room.makeExitPair(rooms[i], rooms[i - 1], "West", "East");
+                }
+            }
+        } catch (ExitExistsException | NullRoomException e) {
+            throw new IllegalStateException(e);
+        }
+        return rooms[0];
+    }
+
+    /** Write the map in the {@link MapIO#saveMap saveMap} format, one room
+    * at a time (rooms are numbered along the rows rather than in the order
+    * saveMap would use).
+    * @param filename file to write to
+    * @return true if successful
+    */
+    public boolean write(String filename) {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                Channels.newOutputStream(FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)),
+                Charset.defaultCharset()), 1 << 16)) {
+            write(out);
+        } catch (IOException ioe) {
+            return false;
+        } catch (InvalidPathException ipe) {
+            return false;
+        }
+        return true;
+    }
+
+    /** Write the map in the saveMap format.
+    * @param out where to write (not closed)
+    * @throws IOException on write failure
+    */
+    public void write(Writer out) throws IOException {
+        int n = size();
+        out.write(Integer.toString(n));
+        out.write('\n');
+        for (int i = 0; i < n; ++i) {
+            out.write(description(i));
+            out.write('\n');
+        }
+        int[] targets = new int[4];
+        String[] labels = new String[4];
+        for (int i = 0; i < n; ++i) {
+            int count = exits(i, targets, labels);
+            out.write(Integer.toString(count));
+            out.write('\n');
+            for (int j = 0; j < count; ++j) {
+                out.write(Integer.toString(targets[j]));
+                out.write(' ');
+                out.write(labels[j]);
+                out.write('\n');
+            }
+        }
+        ThingCodec.LineWriter things = new ThingCodec.LineWriter();
+        for (int i = 0; i < n; ++i) {
+            List<Thing> l = contents(i);
+            out.write(Integer.toString(l.size()));
+            out.write('\n');
+            for (Thing t : l) {
+                things.write(t, out);
+            }
+        }
+    }
+
+    /* Exits of room i in the order a Room keeps them (by label) */
+    private int exits(int i, int[] targets, String[] labels) {
+        int x = i % width;
+        int y = i / width;
+        int count = 0;
+        if (x + 1 < width && joinedWest(x + 1, y)) {
+            targets[count] = i + 1;
+            labels[count++] = "East";
+        }
+        if (joinedNorth(x, y)) {
+            targets[count] = i - width;
+            labels[count++] = "North";
+        }
+        if (y + 1 < height && joinedNorth(x, y + 1)) {
+            targets[count] = i + width;
+            labels[count++] = "South";
+        }
+        if (joinedWest(x, y)) {
+            targets[count] = i - 1;
+            labels[count++] = "West";
+        }
+        return count;
+    }
+
+    /* Is (x, y) joined to the room above it? */
+    private boolean joinedNorth(int x, int y) {
+        if (y == 0) {
+            return false;
+        }
+        switch (shape) {
+        case MAZE:
+            // each room opens north or west (rooms on an edge have no
+            // choice), which makes a tree rooted at the start room
+            return x == 0 || (random(y * width + x, 0) & 1) == 0;
+        case CORRIDOR:
+            // rows run east then west in turn, joined at the ends
+            return x == (((y - 1) % 2 == 0) ? width - 1 : 0);
+        case HUB:
+            return y % hubSize != 0 || x == door(x, width);
+        default:
+            return true;
+        }
+    }
+
+    /* Is (x, y) joined to the room to the left of it? */
+    private boolean joinedWest(int x, int y) {
+        if (x == 0) {
+            return false;
+        }
+        switch (shape) {
+        case MAZE:
+            return y == 0 || (random(y * width + x, 0) & 1) != 0;
+        case HUB:
+            return x % hubSize != 0 || y == door(y, height);
+        default:
+            return true;
+        }
+    }
+
+    /* Position of the door in the middle of the side of the block
+    * containing position p (along a side of length limit)
+    */
+    private int door(int p, int limit) {
+        int start = p - p % hubSize;
+        int length = Math.min(hubSize, limit - start);
+        return start + (length - 1) / 2;
+    }
+
+    private String description(int i) {
+        long r = random(i, 1);
+        return ADJECTIVES[(int) (r & 7)] + " " + PLACES[(int) ((r >>> 3) & 7)];
+    }
+
+    /* Things in room i */
+    private List<Thing> contents(int i) {
+        List<Thing> things = new ArrayList<Thing>(1);
+        if (i == 0) {
+            things.add(new Explorer("Builder", "a builder", 50));
+            return things;
+        }
+        long r = random(i, 2);
+        double u = (r >>> 11) * 0x1.0p-53;
+        int pick = (int) ((r & 0xffff) % TREASURES.length);
+        if (u < treasure) {
+            things.add(new Treasure(TREASURES[pick], (r >>> 16) % 20));
+        } else if (u < treasure + critters) {
+            String name = CRITTERS[pick];
+            things.add(new Critter(name, "a " + name, 0.5,
+                    1 + (int) ((r >>> 16) % 5)));
+        }
+        return things;
+    }
+
+    /* Random bits for one use (salt) of room i */
+    private long random(int i, int salt) {
+        long z = seed + (((long) i << 2) | salt) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,5 +1,12 @@
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /** Static routines to save and load {@link Room Room}s
 * @author JF
@@ -7,6 +14,9 @@ import java.util.*;
 public class MapIO
 {
     /** Write rooms to a new file (using Java serialisation)
+    * <br />Rooms are written as flat tables (see {@link MapSnapshot}), so
+    * any size of map can be saved and Things, including the player's
+    * inventory, are kept exactly.
     * @param root Start room to explore from
     * @param filename Filename to write to
     * @return true if successful
@@ -149,51 +159,97 @@ C;1.0;5;frog;a frog<br />
             idm.put(r, count++);
         }
             // now we can look up any Room's position quickly
-        StringBuilder sb = new StringBuilder();
+            // Each section goes straight to the file rather than being
+            // collected in memory first, so a large map doesn't need
+            // (two) copies of the whole file on the heap
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                Channels.newOutputStream(FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)),
+                Charset.defaultCharset()), 1 << 16)) {
+            writeMap(rooms, idm, out);
+        } catch (IOException ioe) {
+            return false;
+        } catch (InvalidPathException ipe) {
+            return false;
+        }
+        return true;    
+    }    
+
+    /** Write rooms in the saveMap format.
+    * @param rooms Rooms in file order (start room first)
+    * @param idm position of each room in rooms
+    * @param out where to write (not closed)
+    * @throws IOException on write failure
+    */
+    static void writeMap(List<Room> rooms, Map<Room, Integer> idm,
+            Writer out) throws IOException {
+        ThingCodec.LineWriter things = new ThingCodec.LineWriter();
             // write the ID cap to the file 
-        sb.append(idm.size());
-        sb.append('\n');       
+        out.write(Integer.toString(idm.size()));
+        out.write('\n');
             // output all of the rooms in sequence
         for (Room r : rooms) {
-            sb.append(r.getDescription());
-            sb.append('\n');
+            out.write(r.getDescription());
+            out.write('\n');
         }
 
           //     then link them up
         for (Room r : rooms) {
             Map<String, Room> m = r.getExits();
-            sb.append(m.size());
-            sb.append('\n');             
+            out.write(Integer.toString(m.size()));
+            out.write('\n');
             for (Map.Entry<String, Room> entry : m.entrySet()) {
-                sb.append(idm.get(entry.getValue()));
-                sb.append(" ");
-                sb.append(entry.getKey());
-                sb.append('\n');        
+                out.write(Integer.toString(idm.get(entry.getValue())));
+                out.write(' ');
+                out.write(entry.getKey());
+                out.write('\n');
             }
         }
           //     then fill in the objects
         for (Room r : rooms) {
             List<Thing> l = r.getContents();
-            int size = l.size();
-            sb.append(l.size());
-            sb.append('\n');
+            out.write(Integer.toString(l.size()));
+            out.write('\n');
             for (Thing t : l) {
-                sb.append(t.repr());
-                sb.append('\n');
+                things.write(t, out);
             }
         }
-        try {
-            FileWriter fw = new FileWriter(filename);
-            fw.write(sb.toString());
-            fw.close();
-        } catch (IOException ioe) {
-            return false;
-        }
-        return true;    
-    }    
+    }
     
+    /** Write the lines for one room: description, number of exits, exits,
+    * number of items and items (the parts of the saveMap format for a
+    * single room, as used by {@link MapArchive} and {@link MapJournal}).
+    * @param r Room to write
+    * @param idm number of each room
+    * @param things buffer for encoding Things
+    * @param out where to write
+    * @throws IOException on write failure
+    */
+    static void writeRoom(Room r, Map<Room, Integer> idm,
+            ThingCodec.LineWriter things, Writer out) throws IOException {
+        out.write(r.getDescription());
+        out.write('\n');
+        Map<String, Room> m = r.getExits();
+        out.write(Integer.toString(m.size()));
+        out.write('\n');
+        for (Map.Entry<String, Room> entry : m.entrySet()) {
+            out.write(Integer.toString(idm.get(entry.getValue())));
+            out.write(' ');
+            out.write(entry.getKey());
+            out.write('\n');
+        }
+        List<Thing> l = r.getContents();
+        out.write(Integer.toString(l.size()));
+        out.write('\n');
+        for (Thing t : l) {
+            things.write(t, out);
+        }
+    }
+
     /** Decode a String into a Thing. (Need to be able to decode, 
-    *     Treasure, Critter, Explorer)
+    *     Treasure, Critter, Explorer, and anything else with a
+    *     registered {@link ThingCodec ThingCodec})
     * @param encoded String to decode
     * @param root start room for the map
     * @return Decoded Thing or null on failure. (null arguments or 
@@ -203,13 +259,7 @@ C;1.0;5;frog;a frog<br />
         if ((encoded == null) || (root == null)) {
             return null;
         }
-        switch (encoded.charAt(0)) {
-        case '$': return Treasure.decode(encoded);
-        case 'C': return Critter.decode(encoded);
-        case 'E': return Explorer.decode(encoded);
-        }
-    
-        return null;
+        return ThingCodec.decode(encoded);
     }
     
     /** Read information from a file created with saveMap
@@ -291,6 +341,168 @@ C;1.0;5;frog;a frog<br />
         }
     }
     
+    /** Read information from a file created with saveMap, parsing straight
+    * from the file's bytes.
+    * <br />Gives the same result as {@link #loadMap loadMap} (including
+    * returning null for the same malformed input) but avoids the
+    * per-line Strings, substrings and String.split calls, which matters
+    * for maps with millions of rooms.
+    * @param filename Filename to read from
+    * @return null if unsuccessful. If successful, an array of two Objects.
+           [0] being the Player object (if found) and
+           [1] being the start room.
+    * @see MapScanner
+    */
+    public static Object[] loadMapFast(String filename) {
+        try (MapScanner in = new MapScanner(filename)) {
+            Player[] player = new Player[1];
+            Room[] rooms = readRooms(in, player);
+            if (rooms == null) {
+                return null;
+            }
+            Object[] res = new Object[2];
+            res[0] = player[0];
+            res[1] = rooms[0];
+            return res;
+        } catch (IOException ex) {
+            return null;
+        } catch (IndexOutOfBoundsException ex) {
+            return null;
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    /** Read information from a file created with saveMap, optionally
+    * decoding it on several threads.
+    * <br />The parallel mode reads the whole file into memory, finds where
+    * each block of rooms starts and then builds the rooms on the common
+    * fork-join pool (see {@link ParallelMapLoader}). The result is the
+    * same as the sequential mode. Files too large for a single array
+    * are always read sequentially.
+    * @param filename Filename to read from
+    * @param parallel false to use the sequential loader
+    * @return the same as {@link #loadMap loadMap}
+    */
+    public static Object[] loadMapFast(String filename, boolean parallel) {
+        if (!parallel
+                || new File(filename).length() > ParallelMapLoader.MAX_SIZE) {
+            return loadMapFast(filename);
+        }
+        return ParallelMapLoader.load(filename, ForkJoinPool.commonPool());
+    }
+
+    /** Read every room in a text map file, in file order.
+    * @param in scanner positioned at the start of the file
+    * @param player if not null, Players are not added to their room
+    *     and the last one found is stored in player[0] instead
+    * @return the rooms or null if the file is malformed
+    * @throws IOException on read failure
+    * @throws IndexOutOfBoundsException for bad room indices
+    * @throws NumberFormatException for bad counts
+    */
+    static Room[] readRooms(MapScanner in, Player[] player)
+            throws IOException {
+        int idcap = nextInt(in);
+        Room[] rooms = new Room[idcap];
+        for (int i = 0; i < idcap; ++i) {
+            if (!in.next()) {
+                return null;
+            }
+            rooms[i] = new Room(in.line());
+        }
+        for (int i = 0; i < idcap; ++i) {  // for each room set up exits
+            int exitcount = nextInt(in);
+            for (int j = 0; j < exitcount; ++j) {
+                if (!in.next()) {
+                    return null;
+                }
+                int pos = in.indexOfSpace();
+                if (pos < 0) {
+                    return null;
+                }
+                int target = in.intAt(0, pos);
+                try {
+                    rooms[i].addExit(in.textFrom(pos + 1), rooms[target]);
+                } catch (ExitExistsException e) {
+                    return null;
+                } catch (NullRoomException e) {
+                    return null;
+                }
+            }
+        }
+        for (int i = 0; i < idcap; ++i) {
+            int itemcount = nextInt(in);
+            for (int j = 0; j < itemcount; ++j) {
+                if (!in.next()) {
+                    return null;
+                }
+                Thing t = in.thing();
+                if (t == null) {
+                    return null;
+                }
+                if ((player != null) && (t instanceof Player)) {
+                    player[0] = (Player)t;
+                } else {
+                    rooms[i].enter(t);
+                }
+            }
+        }
+        if (idcap == 0) {   // loadMap fails on rooms[0]
+            return null;
+        }
+        return rooms;
+    }
+
+    /* Read a count line (a missing line fails like parseInt(null)) */
+    private static int nextInt(MapScanner in) throws IOException {
+        if (!in.next()) {
+            throw new NumberFormatException("null");
+        }
+        return in.lineInt();
+    }
+
+    /** Write Rooms to a new file in the compact binary format.
+    * Holds the same information as {@link #saveMap saveMap} (with the
+    * same room order) but stores each distinct string once and numbers
+    * in binary.
+    * @param root Start room
+    * @param filename Filename to write to
+    * @return true if successful
+    * @see BinaryMap
+    */
+    public static boolean saveBinaryMap(Room root, String filename) {
+        try {
+            BinaryMap.write(root, filename);
+        } catch (IOException ioe) {
+            return false;
+        }
+        return true;
+    }
+
+    /** Read a file created with saveBinaryMap.
+    * @param filename Filename to read from
+    * @return null if unsuccessful. If successful, an array of two Objects.
+           [0] being the Player object (if found) and
+           [1] being the start room.
+    * @detail. As with loadMap, the player is not added to any room.
+    */
+    public static Object[] loadBinaryMap(String filename) {
+        try {
+            Player[] player = new Player[1];
+            Room[] rooms = BinaryMap.read(filename, player);
+            if (rooms == null) {
+                return null;
+            }
+            Object[] res = new Object[2];
+            res[0] = player[0];
+            res[1] = rooms[0];
+            return res;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
     /** 
     * Used to find a sequence of reachable rooms
     * @author JF
@@ -304,6 +516,12 @@ C;1.0;5;frog;a frog<br />
             count = 0;
             seq = new LinkedList<Room>();
         }
+
+        public SeqWalker(RoomGraph graph, Room start) {
+            super(graph, start);
+            count = 0;
+            seq = new LinkedList<Room>();
+        }
     
         @Override
         public void visit(Room r) {
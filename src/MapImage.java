@@ -0,0 +1,162 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleConsumer;
+
+/** A copy of a map, taken at one moment, holding exactly what
+* {@link MapIO#saveMap MapIO.saveMap} would write for it.
+* <br />Taking the copy only walks the rooms and encodes their Things
+* (it does no I/O), so it can be done quickly on the thread which changes
+* the map. The copy holds only Strings and numbers, so it can then be
+* written on any other thread while the map carries on changing.
+*/
+public class MapImage {
+    private final String[] descriptions;
+    /* Exits and items of room i are at [exitStart[i], exitStart[i + 1])
+    * and [itemStart[i], itemStart[i + 1])
+    */
+    private final int[] exitStart, exitTarget, itemStart;
+    private final String[] exitLabel, items;
+
+    /**
+    * @param rooms rooms in file order (start room first)
+    * @param idm position of each room in rooms
+    */
+    MapImage(List<Room> rooms, Map<Room, Integer> idm) {
+        int n = rooms.size();
+        descriptions = new String[n];
+        exitStart = new int[n + 1];
+        itemStart = new int[n + 1];
+        int[] targets = new int[n];
+        String[] labels = new String[n];
+        String[] things = new String[n];
+        StringBuilder sb = new StringBuilder();
+        int exits = 0;
+        int count = 0;
+        int i = 0;
+        for (Room r : rooms) {
+            descriptions[i] = r.getDescription();
+            for (Map.Entry<String, Room> e : r.getExits().entrySet()) {
+                if (exits == targets.length) {
+                    targets = Arrays.copyOf(targets, exits * 2 + 1);
+                    labels = Arrays.copyOf(labels, exits * 2 + 1);
+                }
+                targets[exits] = idm.get(e.getValue());
+                labels[exits] = e.getKey();
+                ++exits;
+            }
+            for (Thing t : r.getContents()) {
+                if (count == things.length) {
+                    things = Arrays.copyOf(things, count * 2 + 1);
+                }
+                sb.setLength(0);
+                ThingCodec.append(t, sb);
+                things[count++] = sb.toString();
+            }
+            ++i;
+            exitStart[i] = exits;
+            itemStart[i] = count;
+        }
+        exitTarget = targets;
+        exitLabel = labels;
+        items = things;
+    }
+
+    /** Copy every room reachable from root.
+    * @param root Start room
+    * @return the copy
+    */
+    public static MapImage of(Room root) {
+        MapIO.SeqWalker sw = new MapIO.SeqWalker(root);
+        sw.walk();
+        Map<Room, Integer> idm = new HashMap<Room, Integer>();
+        for (Room r : sw.seq) {
+            idm.put(r, idm.size());
+        }
+        return new MapImage(sw.seq, idm);
+    }
+
+    /**
+    * @return number of rooms
+    */
+    public int size() {
+        return descriptions.length;
+    }
+
+    /** Write the copy to a new file in the saveMap format.
+    * @param filename Filename to write to
+    * @param progress told the fraction written so far (every 10% or so)
+    * @return true if successful
+    */
+    public boolean save(String filename, DoubleConsumer progress) {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                Channels.newOutputStream(FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)),
+                Charset.defaultCharset()), 1 << 16)) {
+            write(out, progress);
+        } catch (IOException ioe) {
+            return false;
+        } catch (InvalidPathException ipe) {
+            return false;
+        }
+        return true;
+    }
+
+    /** Write the copy in the saveMap format.
+    * @param out where to write (not closed)
+    * @param progress told the fraction written so far (every 10% or so)
+    * @throws IOException on write failure
+    */
+    public void write(Writer out, DoubleConsumer progress)
+            throws IOException {
+        int n = descriptions.length;
+        long steps = 3L * n;
+        long step = Math.max(1, steps / 10);
+        out.write(Integer.toString(n));
+        out.write('\n');
+        for (int i = 0; i < n; ++i) {
+            out.write(descriptions[i]);
+            out.write('\n');
+            report(i, step, steps, progress);
+        }
+        for (int i = 0; i < n; ++i) {
+            out.write(Integer.toString(exitStart[i + 1] - exitStart[i]));
+            out.write('\n');
+            for (int j = exitStart[i]; j < exitStart[i + 1]; ++j) {
+                out.write(Integer.toString(exitTarget[j]));
+                out.write(' ');
+                out.write(exitLabel[j]);
+                out.write('\n');
+            }
+            report(n + i, step, steps, progress);
+        }
+        for (int i = 0; i < n; ++i) {
+            out.write(Integer.toString(itemStart[i + 1] - itemStart[i]));
+            out.write('\n');
+            for (int j = itemStart[i]; j < itemStart[i + 1]; ++j) {
+                out.write(items[j]);
+                out.write('\n');
+            }
+            report(2L * n + i, step, steps, progress);
+        }
+    }
+
+    private static void report(long done, long step, long steps,
+            DoubleConsumer progress) {
+        if ((done + 1) % step == 0) {
+            progress.accept((double) (done + 1) / steps);
+        }
+    }
+}
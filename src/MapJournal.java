@@ -0,0 +1,536 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleConsumer;
+
+/** Saves a map by appending the rooms which changed since the last save
+* to a journal next to the map file, rather than rewriting the whole map.
+* <br />The journal for <code>name</code> is <code>name.journal</code>.
+* Its first line identifies the version of the map file it applies to
+* (<code>journal size modified</code>), so a journal left behind after
+* the map file is replaced some other way is ignored. After that come
+* batches, one per save:
+* <br /><code>batch number_of_rooms</code><br />
+* for each room: <code>room_number</code> followed by the lines saveMap
+* would write for it (description, number_of_exits, exits,
+* number_of_items, items)<br />
+* <code>end</code>
+* <br />Rooms keep their number from the map file, new rooms are numbered
+* after the last one. A batch which was not completely written is
+* ignored (and overwritten by the next save).
+* <br />When the journal grows past half the size of the map file, the
+* next save compacts: the whole map is written to the map file and the
+* journal removed.
+* <br />If the map file is replaced some other way while the journal is
+* open, the next save compacts (so the journal never adds to a map file
+* it wasn't started for).
+* <br />Saves can be split in two (see {@link #prepareSave prepareSave}),
+* so that only recording what to save happens on the thread which changes
+* the map and the file writing can be done elsewhere (see
+* {@link BackgroundSaver BackgroundSaver}). The files are written holding
+* a lock of their own, so the map's thread is never kept waiting for them.
+*/
+public class MapJournal implements Closeable {
+    /** Added to the map filename to get the journal filename */
+    public static final String SUFFIX = ".journal";
+
+    private final Path base;
+    private final Path journal;
+    private Room root;
+    private Player player;
+    /* Number of every room in the map file or journal */
+    private Map<Room, Integer> ids = new HashMap<Room, Integer>();
+    private int nextId;
+    /* Rooms with a number which have changed since they were written */
+    private final Set<Room> dirty = new LinkedHashSet<Room>();
+    private final RoomListener listener = this::roomDirty;
+    /* Held while writing the files */
+    private final Object io = new Object();
+    /* Map file version and valid journal length (only changed by the
+    * writing thread, holding io)
+    */
+    private volatile long baseSize, baseTime, journalSize;
+
+    private MapJournal(Path base) {
+        this.base = base;
+        journal = Paths.get(base.toString() + SUFFIX);
+    }
+
+    /** Load a map file created with saveMap, along with its journal.
+    * Changes made to the map afterwards are tracked until close().
+    * @param filename map file to read
+    * @return the journal, or null if the map or journal can not be read
+    */
+    public static MapJournal open(String filename) {
+        try {
+            MapJournal j = new MapJournal(Paths.get(filename));
+            if (!j.load()) {
+                return null;
+            }
+            Room.addRoomListener(j.listener);
+            return j;
+        } catch (IOException ex) {
+            return null;
+        } catch (InvalidPathException ex) {
+            return null;
+        } catch (IndexOutOfBoundsException ex) {
+            return null;
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    /**
+    * @return the start room
+    */
+    public synchronized Room getRoot() {
+        return root;
+    }
+
+    /** The player as loaded (not added to any room, as with
+    * {@link MapIO#loadMap MapIO.loadMap}).
+    * @return the player or null if there was none
+    */
+    public synchronized Player getPlayer() {
+        return player;
+    }
+
+    /**
+    * @return number of changed rooms which the next save will write
+    *     (not counting new rooms)
+    */
+    public synchronized int pending() {
+        return dirty.size();
+    }
+
+    /** Append every room which changed since the last save (and any new
+    * rooms they lead to) to the journal. Compacts instead if the journal
+    * has grown too large.
+    * @return true if successful
+    */
+    public boolean save() {
+        return run(prepareSave());
+    }
+
+    /** Write the whole map to the map file and remove the journal.
+    * The new map file is written next to the old one and then moved over
+    * it, so one or the other is always complete.
+    * @return true if successful
+    */
+    public boolean compact() {
+        return run(prepareCompact());
+    }
+
+    /** First half of {@link #save save}: record what the save will
+    * write. Call on the thread which changes the map. The job can then
+    * be written on any thread, but jobs must be written one at a time
+    * and in the order they were prepared, and failed() must be called
+    * (on the map's thread) if one fails.
+    * @return the job which writes the save
+    */
+    public synchronized BackgroundSaver.Job prepareSave() {
+        if (journalSize > baseSize / 2 || baseChanged()) {
+            return prepareCompact();
+        }
+        List<Room> batch = new ArrayList<Room>(dirty);
+        if (batch.isEmpty()) {
+            return progress -> true;
+        }
+            // new rooms can only be reached through changed rooms
+        int first = nextId;
+        for (int i = 0; i < batch.size(); ++i) {
+            for (Room r : batch.get(i).getExits().values()) {
+                if (!ids.containsKey(r)) {
+                    ids.put(r, nextId++);
+                    batch.add(r);
+                }
+            }
+        }
+        StringWriter sw = new StringWriter();
+        ThingCodec.LineWriter things = new ThingCodec.LineWriter();
+        sw.write("batch " + batch.size() + "\n");
+        try {
+            for (Room r : batch) {
+                sw.write(ids.get(r).toString());
+                sw.write('\n');
+                MapIO.writeRoom(r, ids, things, sw);
+            }
+        } catch (IOException ex) {
+            throw new AssertionError(ex);       // StringWriter doesn't
+        }
+        sw.write("end\n");
+        String text = sw.toString();
+            // anything changed from here on goes in the next batch
+        dirty.clear();
+        for (Room r : batch) {
+            r.markClean();
+        }
+        return new BackgroundSaver.Job() {
+            @Override
+            public boolean write(DoubleConsumer progress) {
+                try {
+                    append(text);
+                    progress.accept(1.0);
+                    return true;
+                } catch (IOException ex) {
+                    return false;
+                }
+            }
+
+            @Override
+            public void failed() {
+                synchronized (MapJournal.this) {
+                    for (Room r : batch) {
+                        Integer id = ids.get(r);
+                        if (id != null && id >= first) {
+                            ids.remove(r);
+                        }
+                    }
+                    nextId = first;
+                    for (Room r : batch) {
+                        r.markDirty();  // listener puts numbered ones back
+                    }
+                }
+            }
+        };
+    }
+
+    /** First half of {@link #compact compact}, in the same way as
+    * {@link #prepareSave prepareSave}.
+    * @return the job which writes the map file
+    */
+    public synchronized BackgroundSaver.Job prepareCompact() {
+        MapIO.SeqWalker sw = new MapIO.SeqWalker(root);
+        sw.walk();
+        Map<Room, Integer> idm = new HashMap<Room, Integer>();
+        for (Room r : sw.seq) {
+            idm.put(r, idm.size());
+        }
+        MapImage image = new MapImage(sw.seq, idm);
+        Map<Room, Integer> oldIds = ids;
+        int oldNext = nextId;
+            // rooms are numbered as in the new map file from now on
+        ids = idm;
+        nextId = idm.size();
+        dirty.clear();
+        for (Room r : sw.seq) {
+            r.markClean();
+        }
+        return new BackgroundSaver.Job() {
+            @Override
+            public boolean write(DoubleConsumer progress) {
+                return writeBase(image, progress);
+            }
+
+            @Override
+            public void failed() {
+                synchronized (MapJournal.this) {
+                        // the old map file and journal are still there
+                    ids = oldIds;
+                    nextId = oldNext;
+                    for (Room r : sw.seq) {
+                        r.markDirty();
+                    }
+                }
+            }
+        };
+    }
+
+    /* Prepare and write a job straight away */
+    private static boolean run(BackgroundSaver.Job job) {
+        if (job.write(f -> { })) {
+            return true;
+        }
+        job.failed();
+        return false;
+    }
+
+    /* Replace the map file with image and remove the journal */
+    private boolean writeBase(MapImage image, DoubleConsumer progress) {
+        Path tmp = null;
+        try {
+            Path dir = base.toAbsolutePath().getParent();
+            tmp = Files.createTempFile(dir, base.getFileName().toString(),
+                    ".tmp");
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(tmp), Charset.defaultCharset()),
+                    1 << 16)) {
+                image.write(out, progress);
+            }
+            synchronized (io) {
+                try {
+                    Files.move(tmp, base, StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(tmp, base, StandardCopyOption.REPLACE_EXISTING);
+                }
+                tmp = null;
+                    // saved: from here on nothing can undo the move, so
+                    // failures only leave the next save to compact again
+                journalSize = 0;
+                try {
+                    readBaseVersion();
+                } catch (IOException ex) {
+                    baseSize = baseTime = -1;
+                }
+                    // the journal no longer matches the map file, so even
+                    // if it can't be removed it won't be used
+                try {
+                    Files.deleteIfExists(journal);
+                } catch (IOException ex) {
+                    // leave it
+                }
+            }
+            return true;
+        } catch (IOException ex) {
+            return false;
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ex) {
+                    // leave it
+                }
+            }
+        }
+    }
+
+    /** Stop tracking changes to the map. */
+    @Override
+    public void close() {
+        Room.removeRoomListener(listener);
+    }
+
+    /* Called (on any thread) when a clean room changes */
+    private synchronized void roomDirty(Room r) {
+        if (ids.containsKey(r)) {
+            dirty.add(r);
+        }
+    }
+
+    /* Write one batch at the end of the valid part of the journal.
+    * Fails if the map file is no longer the one the journal is for (the
+    * batch is then saved again by the compaction the next save does).
+    */
+    private void append(String batch) throws IOException {
+        synchronized (io) {
+            if (baseChanged()) {
+                throw new IOException("Map file replaced");
+            }
+            String text = (journalSize == 0) ? header() + "\n" + batch
+                    : batch;
+            ByteBuffer bb = Charset.defaultCharset().encode(text);
+            try (FileChannel ch = FileChannel.open(journal,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                ch.truncate(journalSize);
+                ch.position(journalSize);
+                while (bb.hasRemaining()) {
+                    ch.write(bb);
+                }
+                journalSize = ch.position();
+            }
+        }
+    }
+
+    /* Has the map file been replaced since the journal header was made? */
+    private boolean baseChanged() {
+        try {
+            return Files.size(base) != baseSize
+                    || Files.getLastModifiedTime(base).toMillis() != baseTime;
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+
+    /* First line of a journal for the current map file */
+    private String header() {
+        return "journal " + baseSize + " " + baseTime;
+    }
+
+    private void readBaseVersion() throws IOException {
+        baseSize = Files.size(base);
+        baseTime = Files.getLastModifiedTime(base).toMillis();
+    }
+
+    /* Read the map file and apply the journal */
+    private boolean load() throws IOException {
+        readBaseVersion();
+        Player[] holder = new Player[1];
+        Room[] rooms;
+        try (MapScanner in = new MapScanner(base.toString())) {
+            rooms = MapIO.readRooms(in, holder);
+        }
+        if (rooms == null) {
+            return false;
+        }
+        List<Room> all = new ArrayList<Room>(Arrays.asList(rooms));
+        if (Files.exists(journal) && !replay(all, holder)) {
+            return false;
+        }
+        root = all.get(0);
+        player = holder[0];
+        for (int i = 0; i < all.size(); ++i) {
+            Room r = all.get(i);
+            if (r != null) {
+                ids.put(r, i);
+                r.markClean();
+            }
+        }
+        nextId = all.size();
+        return true;
+    }
+
+    /* Apply every complete batch in the journal.
+    * Returns false if a complete batch can not be applied.
+    */
+    private boolean replay(List<Room> rooms, Player[] player)
+            throws IOException {
+        MapScanner in = new MapScanner(Files.readAllBytes(journal));
+        if (!in.next() || !in.line().equals(header())) {
+            return true;            // not for this map file
+        }
+        journalSize = in.mark();
+        for (;;) {
+            List<Record> batch;
+            try {
+                batch = readBatch(in, rooms.size());
+            } catch (IOException | IndexOutOfBoundsException
+                    | NumberFormatException ex) {
+                batch = null;
+            }
+            if (batch == null) {
+                return true;        // end of journal or torn write
+            }
+            if (!apply(batch, rooms, player)) {
+                return false;
+            }
+            journalSize = in.mark();
+        }
+    }
+
+    /* One room as recorded in the journal */
+    private static class Record {
+        int id;
+        String description;
+        int[] targets;
+        String[] labels;
+        Thing[] things;
+    }
+
+    /* Read the next batch, or return null if there isn't a complete one */
+    private static List<Record> readBatch(MapScanner in, int known)
+            throws IOException {
+        if (!in.next() || !in.line().startsWith("batch ")) {
+            return null;
+        }
+        int count = Integer.parseInt(in.line().substring(6));
+        List<Record> batch = new ArrayList<Record>();
+        for (int i = 0; i < count; ++i) {
+            Record rec = new Record();
+            if (!in.next()) {
+                return null;
+            }
+            rec.id = in.lineInt();
+            if (rec.id < 0 || rec.id >= known + count || !in.next()) {
+                return null;
+            }
+            rec.description = in.line();
+            if (!in.next()) {
+                return null;
+            }
+            int exits = in.lineInt();
+            rec.targets = new int[exits];
+            rec.labels = new String[exits];
+            for (int j = 0; j < exits; ++j) {
+                if (!in.next()) {
+                    return null;
+                }
+                int pos = in.indexOfSpace();
+                if (pos < 0) {
+                    return null;
+                }
+                rec.targets[j] = in.intAt(0, pos);
+                rec.labels[j] = in.textFrom(pos + 1);
+            }
+            if (!in.next()) {
+                return null;
+            }
+            rec.things = new Thing[in.lineInt()];
+            for (int j = 0; j < rec.things.length; ++j) {
+                if (!in.next()) {
+                    return null;
+                }
+                rec.things[j] = in.thing();
+                if (rec.things[j] == null) {
+                    return null;
+                }
+            }
+            batch.add(rec);
+        }
+        if (!in.next() || !in.line().equals("end")) {
+            return null;
+        }
+        return batch;
+    }
+
+    /* Replace (or create) the rooms in a batch */
+    private static boolean apply(List<Record> batch, List<Room> rooms,
+            Player[] player) {
+            // every room must exist before any exits are added
+        for (Record rec : batch) {
+            while (rooms.size() <= rec.id) {
+                rooms.add(null);
+            }
+            Room r = rooms.get(rec.id);
+            if (r == null) {
+                rooms.set(rec.id, new Room(rec.description));
+            } else {
+                r.setDescription(rec.description);
+                r.clear();
+            }
+        }
+        for (Record rec : batch) {
+            Room r = rooms.get(rec.id);
+            try {
+                for (int j = 0; j < rec.targets.length; ++j) {
+                    if (rec.targets[j] < 0 || rec.targets[j] >= rooms.size()) {
+                        return false;
+                    }
+                    r.addExit(rec.labels[j], rooms.get(rec.targets[j]));
+                }
+            } catch (ExitExistsException e) {
+                return false;
+            } catch (NullRoomException e) {
+                return false;
+            }
+            for (Thing t : rec.things) {
+                if (t instanceof Player) {
+                    player[0] = (Player) t;
+                } else {
+                    r.enter(t);
+                }
+            }
+        }
+        return true;
+    }
+}
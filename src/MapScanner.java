@@ -0,0 +1,279 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/** Line scanner for the text map format which works directly on the bytes
+* read from a {@link FileChannel}.
+* <br />Lines end with \n, \r or \r\n (the same as BufferedReader.readLine()).
+* Integers, doubles and the ;-separated fields of encoded
+* {@link Thing Thing}s are parsed in place (see
+* {@link ThingFields ThingFields}), so the only objects created
+* per line are the Strings which end up in the map.
+*/
+class MapScanner implements Closeable {
+    private final FileChannel channel;
+    private final Charset charset;
+    private byte[] buf;
+    private ByteBuffer wrapped;
+    /** Offset in the file of buf[0] */
+    private long base;
+    /** Next unread byte */
+    private int pos;
+    /** End of valid data in buf */
+    private int lim;
+    private boolean eof;
+    /** Last line ended with \r, so a leading \n must be skipped */
+    private boolean skipLF;
+    /** Bounds of the current line */
+    private int start, end;
+    /** Fields and numbers of the current line */
+    private final Fields fields = new Fields();
+
+    /**
+    * @param filename File to read
+    * @throws IOException if the file can not be opened
+    */
+    MapScanner(String filename) throws IOException {
+        this(FileChannel.open(Paths.get(filename), StandardOpenOption.READ),
+                1 << 16);
+    }
+
+    /** Scan from the channel's current position. Reads do not move the
+    * channel's position, so several scanners can share one channel.
+    * @param channel Channel to read from (closed by close())
+    * @param size initial buffer size (grows for longer lines)
+    * @throws IOException if the channel's position can not be read
+    */
+    MapScanner(FileChannel channel, int size) throws IOException {
+        this.channel = channel;
+        base = channel.position();
+        charset = Charset.defaultCharset();
+        buf = new byte[size];
+        wrapped = ByteBuffer.wrap(buf);
+    }
+
+    /** Scan lines held in memory.
+    * @param data file contents (not copied)
+    */
+    MapScanner(byte[] data) {
+        channel = null;
+        charset = Charset.defaultCharset();
+        buf = data;
+        lim = data.length;
+        eof = true;
+    }
+
+    /** Where does the next line start?
+    * @return offset (in the data given to the constructor) which can
+    *     be passed to seek() to read the following lines again
+    */
+    int mark() {
+        if (skipLF && pos < lim && buf[pos] == '\n') {
+            return pos + 1;
+        }
+        return pos;
+    }
+
+    /** Where does the next line start in the file?
+    * @return offset which can be passed to seek()
+    * @throws IOException on read failure
+    */
+    long offset() throws IOException {
+        if (skipLF && pos == lim) {
+            fill();             // is the \r followed by \n?
+        }
+        return base + mark();
+    }
+
+    /** Continue reading from the start of a line.
+    * Data which is already buffered is reused.
+    * @param offset value returned by mark() or offset()
+    */
+    void seek(long offset) {
+        if (offset >= base && offset <= base + lim) {
+            pos = (int) (offset - base);
+        } else {
+            base = offset;
+            pos = 0;
+            lim = 0;
+            eof = false;
+        }
+        skipLF = false;
+    }
+
+    /** Move to the next line.
+    * @return false if there are no more lines
+    * @throws IOException on read failure
+    */
+    boolean next() throws IOException {
+        if (skipLF) {
+            if (pos == lim && !fill()) {
+                return false;
+            }
+            if (buf[pos] == '\n') {
+                ++pos;
+            }
+            skipLF = false;
+        }
+        int i = pos;
+        for (;;) {
+            while (i < lim) {
+                byte b = buf[i];
+                if (b == '\n' || b == '\r') {
+                    start = pos;
+                    end = i;
+                    pos = i + 1;
+                    skipLF = (b == '\r');
+                    return true;
+                }
+                ++i;
+            }
+            int scanned = i - pos;
+            if (!fill()) {
+                if (lim > pos) {        // last line has no terminator
+                    start = pos;
+                    end = lim;
+                    pos = lim;
+                    return true;
+                }
+                return false;
+            }
+            i = pos + scanned;
+        }
+    }
+
+    /* Make more data available after the current (partial) line.
+    * @return false at end of file with nothing new read
+    */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int keep = lim - pos;
+        base += pos;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, keep);
+        } else if (keep == buf.length) {
+            byte[] bigger = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, bigger, 0, keep);
+            buf = bigger;
+            wrapped = ByteBuffer.wrap(buf);
+        }
+        pos = 0;
+        lim = keep;
+        wrapped.limit(buf.length).position(lim);
+        int n;
+        do {
+            n = channel.read(wrapped, base + lim);
+        } while (n == 0);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        lim += n;
+        return true;
+    }
+
+    /**
+    * @return the current line as a String
+    */
+    String line() {
+        return text(start, end);
+    }
+
+    /**
+    * @return the current line parsed with Integer.parseInt rules
+    * @throws NumberFormatException if the line is not an int
+    */
+    int lineInt() {
+        return parseInt(start, end);
+    }
+
+    /** Index of the first space in the current line.
+    * @return offset from the start of the line or -1 if there is none
+    */
+    int indexOfSpace() {
+        for (int i = start; i < end; ++i) {
+            if (buf[i] == ' ') {
+                return i - start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+    * @param from offset from start of line
+    * @param to offset from start of line (exclusive)
+    * @return int parsed from part of the current line
+    * @throws NumberFormatException if the text is not an int
+    */
+    int intAt(int from, int to) {
+        return parseInt(start + from, start + to);
+    }
+
+    /**
+    * @param from offset from start of line
+    * @return rest of the current line
+    */
+    String textFrom(int from) {
+        return text(start + from, end);
+    }
+
+    /** Decode the current line as a Thing, using the
+    * {@link ThingCodec ThingCodec} registered for its tag.
+    * Accepts exactly what {@link MapIO#decodeThing MapIO.decodeThing}
+    * accepts.
+    * @return the Thing or null if the line is not a valid encoding
+    * @throws StringIndexOutOfBoundsException if the line is empty
+    */
+    Thing thing() {
+        if (start == end) {
+            throw new StringIndexOutOfBoundsException(0);
+        }
+        ThingCodec<?> codec = ThingCodec.forTag(buf[start]);
+        if (codec == null) {
+            return null;
+        }
+        fields.split(start, end);
+        return ThingCodec.decode(codec, fields);
+    }
+
+    /**
+    * @return first byte of the current line, or -1 if it is empty
+    */
+    int firstByte() {
+        return (start < end) ? buf[start] : -1;
+    }
+
+    private String text(int from, int to) {
+        return new String(buf, from, to - from, charset);
+    }
+
+    private int parseInt(int from, int to) {
+        return fields.parseInt(from, to);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /* Fields of the current line */
+    private class Fields extends ThingFields {
+        @Override
+        protected int at(int pos) {
+            return buf[pos];
+        }
+
+        @Override
+        protected String text(int from, int to) {
+            return MapScanner.this.text(from, to);
+        }
+    }
+}
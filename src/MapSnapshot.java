@@ -0,0 +1,140 @@
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Serialised form of a {@link Room Room} and every room reachable
+* from it.
+* <br />Default serialisation would follow each exit recursively, so long
+* corridors overflow the stack. Instead {@link Room Room} replaces itself
+* with one of these, which numbers the rooms with a
+* {@link MapWalker MapWalker} and writes them as flat tables:
+* <ol><li>format version, number of rooms, the distinct strings used as
+*         descriptions and exit labels</li>
+*     <li>for each room: its description</li>
+*     <li>for each room: number of exits, then (label, target room) pairs</li>
+*     <li>for each room: number of Things, then each Thing</li>
+* </ol>
+* Numbers are varints. Things use normal serialisation, so all of their
+* state (including Player inventory) is kept.
+* <br />Reading it back gives the start Room.
+* Note: each Room written to a stream becomes a separate map.
+* @serial exclude
+*/
+public class MapSnapshot implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    /** Current format version */
+    private static final int VERSION = 1;
+
+    /* Start room of the map (written or read) */
+    private Room root;
+
+    /** For deserialisation only. */
+    public MapSnapshot() {
+    }
+
+    /**
+    * @param root start room of the map to save
+    */
+    MapSnapshot(Room root) {
+        this.root = root;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        MapIO.SeqWalker sw = new MapIO.SeqWalker(root);
+        sw.walk();
+        List<Room> rooms = sw.seq;
+        Map<Room, Integer> idm = new HashMap<Room, Integer>();
+        Map<String, Integer> strings = new HashMap<String, Integer>();
+        List<String> table = new ArrayList<String>();
+        for (Room r : rooms) {
+            idm.put(r, idm.size());
+            intern(r.getDescription(), strings, table);
+            for (String label : r.getExits().keySet()) {
+                intern(label, strings, table);
+            }
+        }
+        BinaryMap.writeVarint(out, VERSION);
+        BinaryMap.writeVarint(out, rooms.size());
+        BinaryMap.writeVarint(out, table.size());
+        for (String s : table) {
+            out.writeObject(s);
+        }
+        for (Room r : rooms) {
+            BinaryMap.writeVarint(out, strings.get(r.getDescription()));
+        }
+        for (Room r : rooms) {
+            Map<String, Room> exits = r.getExits();
+            BinaryMap.writeVarint(out, exits.size());
+            for (Map.Entry<String, Room> e : exits.entrySet()) {
+                BinaryMap.writeVarint(out, strings.get(e.getKey()));
+                BinaryMap.writeVarint(out, idm.get(e.getValue()));
+            }
+        }
+        for (Room r : rooms) {
+            List<Thing> l = r.getContents();
+            BinaryMap.writeVarint(out, l.size());
+            for (Thing t : l) {
+                out.writeObject(t);
+            }
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException,
+            ClassNotFoundException {
+        try {
+            if (BinaryMap.readVarint(in) != VERSION) {
+                throw new InvalidObjectException("Unknown map version");
+            }
+            Room[] rooms = new Room[BinaryMap.readVarint(in)];
+            String[] table = new String[BinaryMap.readVarint(in)];
+            for (int i = 0; i < table.length; ++i) {
+                table[i] = (String) in.readObject();
+            }
+            for (int i = 0; i < rooms.length; ++i) {
+                rooms[i] = new Room(table[BinaryMap.readVarint(in)]);
+            }
+            for (Room r : rooms) {
+                int exitcount = BinaryMap.readVarint(in);
+                for (int j = 0; j < exitcount; ++j) {
+                    String label = table[BinaryMap.readVarint(in)];
+                    r.addExit(label, rooms[BinaryMap.readVarint(in)]);
+                }
+            }
+            for (Room r : rooms) {
+                int itemcount = BinaryMap.readVarint(in);
+                for (int j = 0; j < itemcount; ++j) {
+                    r.enter((Thing) in.readObject());
+                }
+            }
+            root = rooms[0];
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException
+                | ClassCastException | CrawlException ex) {
+            throw new InvalidObjectException("Malformed map: " + ex);
+        }
+    }
+
+    /**
+    * @return the start Room in place of this object
+    * @throws ObjectStreamException never
+    */
+    protected Object readResolve() throws ObjectStreamException {
+        return root;
+    }
+
+    private static void intern(String s, Map<String, Integer> strings,
+            List<String> table) {
+        if (!strings.containsKey(s)) {
+            strings.put(s, table.size());
+            table.add(s);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** Checks that a map makes sense. Finds:
+* <ul>
+* <li>rooms given the same {@link BoundsMapper BoundsMapper} coordinates
+* as another room</li>
+* <li>"North", "South", "East" and "West" exits whose target has no exit
+* the opposite way back</li>
+* <li>rooms which can't be reached from the start room</li>
+* <li>Players which loading would throw away (loadMap keeps only the last
+* one)</li>
+* </ul>
+* Rooms are numbered as in the map file (the start room is 0).
+* <br />Coordinates and reachability come from one walk from the start
+* room; the rooms are then checked in blocks on a fork-join pool.
+* <br />Usage: java MapValidator mapfile...
+* <br />Prints every problem and exits with status 3 if there were any
+* (2 if a file can't be read).
+*/
+public class MapValidator {
+    /** Fewest rooms checked by one task */
+    private static final int MIN_BLOCK = 4096;
+
+    /** What is wrong. */
+    public enum Kind {
+        /** Shares its coordinates with another room */
+        OVERLAP,
+        /** Has a compass exit with no matching exit back */
+        NO_WAY_BACK,
+        /** Can't be reached from the start room */
+        UNREACHABLE,
+        /** Holds a Player which loading would drop */
+        EXTRA_PLAYER
+    }
+
+    /** One problem with one room. */
+    public static final class Problem {
+        /** What is wrong */
+        public final Kind kind;
+        /** Index of the room in the map */
+        public final int room;
+        /** Index of the other room involved (or -1) */
+        public final int other;
+        /** Exit label or Player involved (or null) */
+        public final String detail;
+
+        Problem(Kind kind, int room, int other, String detail) {
+            this.kind = kind;
+            this.room = room;
+            this.other = other;
+            this.detail = detail;
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+            case OVERLAP:
+                return "room " + room + ": at " + detail + " like room "
+                        + other;
+            case NO_WAY_BACK:
+                return "room " + room + ": no way back from " + detail
+                        + " exit to room " + other;
+            case UNREACHABLE:
+                return "room " + room + ": can't be reached";
+            default:
+                return "room " + room + ": extra player " + detail;
+            }
+        }
+    }
+
+    private final Room[] rooms;
+    private final RoomIndex index = new RoomIndex();
+    private final RoomGraph graph;
+    private final CoordMap positions;
+    private final int block;
+
+    private MapValidator(Room[] rooms, int blocks) {
+        this.rooms = rooms;
+        for (Room r : rooms) {
+            index.add(r);
+        }
+        graph = RoomGraph.of(rooms[0]);
+        BoundsMapper bm = new BoundsMapper(graph, rooms[0]);
+        bm.walk();
+        positions = bm.positions;
+        block = (rooms.length + blocks - 1) / blocks;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: java MapValidator mapfile...");
+            System.exit(1);
+        }
+        int status = 0;
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out)));
+        for (String name : args) {
+            List<Problem> problems = check(name);
+            if (problems == null) {
+                out.flush();
+                System.err.println("Unable to read " + name);
+                status = 2;
+                continue;
+            }
+            for (Problem p : problems) {
+                out.println(name + ": " + p);
+            }
+            out.println(name + ": " + problems.size() + " problems");
+            if (!problems.isEmpty() && status == 0) {
+                status = 3;
+            }
+        }
+        out.flush();
+        System.exit(status);
+    }
+
+    /** Load and check a map file (text or binary).
+    * @param filename map to check
+    * @return every problem found, by room, or null if the file can't be
+    *     read
+    */
+    public static List<Problem> check(String filename) {
+        Room[] rooms;
+        try {
+            if (BinaryMap.isBinary(filename)) {
+                rooms = BinaryMap.read(filename, null);
+            } else {
+                try (MapScanner in = new MapScanner(filename)) {
+                    rooms = MapIO.readRooms(in, null);
+                }
+            }
+        } catch (IOException ex) {
+            return null;
+        } catch (IndexOutOfBoundsException ex) {
+            return null;
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+        return (rooms == null) ? null : check(rooms);
+    }
+
+    /** Check a map on the common pool.
+    * @param rooms every room, as in the file (Players left in their rooms)
+    * @return every problem found, in room order
+    */
+    public static List<Problem> check(Room[] rooms) {
+        return check(rooms, ForkJoinPool.commonPool());
+    }
+
+    /** Check a map.
+    * @param rooms every room, as in the file (Players left in their rooms)
+    * @param pool pool to check on
+    * @return every problem found, in room order
+    */
+    public static List<Problem> check(Room[] rooms, ForkJoinPool pool) {
+        if (rooms.length == 0) {
+            return new ArrayList<Problem>();
+        }
+        int blocks = Math.max(1, Math.min(pool.getParallelism() * 4,
+                rooms.length / MIN_BLOCK));
+        MapValidator v = new MapValidator(rooms, blocks);
+        List<Problem> found = pool.invoke(v.new Check(0, blocks));
+        // every Player but the last one found is dropped when loading
+        for (int i = found.size() - 1; i >= 0; --i) {
+            if (found.get(i).kind == Kind.EXTRA_PLAYER) {
+                found.remove(i);
+                break;
+            }
+        }
+        return found;
+    }
+
+    /* Problems with the rooms of block b (Players are all listed) */
+    private List<Problem> checkBlock(int b) {
+        List<Problem> found = new ArrayList<Problem>();
+        int end = Math.min(rooms.length, (b + 1) * block);
+        for (int i = b * block; i < end; ++i) {
+            Room room = rooms[i];
+            if (graph.idOf(room) < 0) {
+                found.add(new Problem(Kind.UNREACHABLE, i, -1, null));
+            } else {
+                long p = positions.get(room, 0);
+                Room at = positions.roomAt(CoordMap.x(p), CoordMap.y(p));
+                if (at != room) {
+                    found.add(new Problem(Kind.OVERLAP, i, index.indexOf(at),
+                            "(" + CoordMap.x(p) + "," + CoordMap.y(p) + ")"));
+                }
+            }
+            for (Map.Entry<String, Room> e : room.getExits().entrySet()) {
+                Direction d = Direction.of(e.getKey());
+                Room target = e.getValue();
+                if (d != null && target.getExit(d.opposite()) != room) {
+                    found.add(new Problem(Kind.NO_WAY_BACK, i,
+                            index.indexOf(target), e.getKey()));
+                }
+            }
+            for (Thing t : room.getContents()) {
+                if (t instanceof Player) {
+                    found.add(new Problem(Kind.EXTRA_PLAYER, i, -1,
+                            t.getShortDescription()));
+                }
+            }
+        }
+        return found;
+    }
+
+    /* Checks a range of blocks, splitting in half until a single block is
+    * left, and joins the results in order.
+    */
+    private class Check extends RecursiveTask<List<Problem>> {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+
+        Check(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Problem> compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                Check right = new Check(mid, to);
+                right.fork();
+                List<Problem> found = new Check(from, mid).compute();
+                found.addAll(right.join());
+                return found;
+            }
+            return checkBlock(from);
+        }
+    }
+}
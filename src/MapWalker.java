@@ -1,4 +1,7 @@
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /** Iterator over all reachable {@link Room Room}s
 * @author JF
@@ -10,7 +13,14 @@ public class MapWalker
     /** Current todo list */
     private Deque<Room> toVisit;
     private Room start;
-    
+    /** Graph to walk instead of following Room exits (or null) */
+    private RoomGraph graph;
+    /** Room ids already processed (when walking a graph) */
+    private BitSet visitedIds;
+    /** Queues the target of an exit (made once, so walk() allocates
+    * nothing per exit) */
+    private final BiConsumer<String, Room> queue = (label, e) -> toVisit.add(e);
+
     /**
     * Choose start room but <B>Do not start the walk process.</B>
     * <br /><b>Joel will not test this constructor with a null parameter</b>.
@@ -21,14 +31,35 @@ public class MapWalker
         this.start = start;
     }
 
+    /**
+    * Choose start room but <B>Do not start the walk process.</B>
+    * <br />The walk follows the exits recorded in graph rather than asking
+    * each Room, and tracks visits by room id. It visits the same rooms in
+    * the same order as walking the Rooms themselves, as long as the exits
+    * have not changed since graph was taken.
+    * If start is not in graph, the Rooms are walked instead.
+    * @param graph exits to follow
+    * @param start Room to begin exploring from
+    */
+    public MapWalker(RoomGraph graph, Room start) {
+        this(start);
+        if (graph.idOf(start) >= 0) {
+            this.graph = graph;
+        }
+    }
+
     /**
      * Called by walk --- clears any state from previous walks.
      * Subclasses which @Override this method must call super.reset()
      * internally to ensure that parent state is cleared as well.
     */
     protected void reset() {
-        visited = new HashSet<Room>();
-        toVisit = new LinkedList<Room>();    
+        if (graph != null) {
+            visitedIds = new BitSet(graph.size());
+        } else {
+            visited = new HashSet<Room>();
+            toVisit = new ArrayDeque<Room>();
+        }
     }
 
     /** 
@@ -39,14 +70,16 @@ public class MapWalker
     */
     public void walk() {
         reset();
+        if (graph != null) {
+            walkGraph();
+            return;
+        }
         toVisit.add(start);    
         while (! toVisit.isEmpty()) {
             Room r = toVisit.removeFirst();
             if (!visited.contains(r)) {
                 visited.add(r);
-                for (Room e : r.getExits().values()) {
-                    toVisit.add(e);
-                }
+                r.forEachExit(queue);
                 visit(r);
             }
         }
@@ -60,9 +93,62 @@ public class MapWalker
         if (room == null) {
             return false;
         }
+        if (graph != null) {
+            int id = graph.idOf(room);
+            return id >= 0 && visitedIds.get(id);
+        }
         return visited.contains(room);
     }
 
+    /* walk() over the graph: a room is queued once (the first time it is
+    * seen), which visits rooms in the same order as queueing every exit
+    * and skipping rooms already visited when they come off the queue
+    */
+    private void walkGraph() {
+        int[] queue = new int[graph.size()];
+        BitSet queued = new BitSet(graph.size());
+        int head = 0;
+        int tail = 0;
+        int first = graph.idOf(start);
+        queued.set(first);
+        queue[tail++] = first;
+        while (head < tail) {
+            int id = queue[head++];
+            visitedIds.set(id);
+            for (int e = graph.exitStart(id); e < graph.exitEnd(id); ++e) {
+                int t = graph.target(e);
+                if (!queued.get(t)) {
+                    queued.set(t);
+                    queue[tail++] = t;
+                }
+            }
+            visit(graph.room(id));
+        }
+    }
+
+    /**
+    * Rooms reachable from start, found only as the stream asks for them.
+    * <br />Short-circuiting operations (findFirst, anyMatch, limit, ...)
+    * stop exploring as soon as they are satisfied. The rooms come in
+    * walk() order.
+    * @param start Room to begin exploring from
+    * @return a sequential stream of rooms
+    */
+    public static Stream<Room> stream(Room start) {
+        return StreamSupport.stream(new RoomSpliterator(start, false), false);
+    }
+
+    /**
+    * Rooms reachable from start, found only as the stream asks for them.
+    * <br />Exploring is shared between the threads of the stream, so the
+    * rooms come in no particular order.
+    * @param start Room to begin exploring from
+    * @return a parallel stream of rooms
+    */
+    public static Stream<Room> parallelStream(Room start) {
+        return StreamSupport.stream(new RoomSpliterator(start, true), true);
+    }
+
     /** process a room
     * override to customise behaviour
     * @param room Room to deal with
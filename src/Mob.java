@@ -19,6 +19,22 @@ public interface Mob {
      */
     boolean wantsToFight(Mob mob);
 
+    /**
+     * What kind of Mob does this Mob want to fight? Lets a Room work out
+     * whether anything wants to fight a Mob without asking every Mob in it.
+     * Note: Mobs which override wantsToFight must override this to match,
+     * and an override should only answer for its own class (subclasses
+     * may override wantsToFight again). The answer given when the Mob
+     * enters a Room is the one used while it is there.
+     *
+     * @return the class whose instances (and only those) wantsToFight is
+     *         true for, Void.class if it is never true, or null if
+     *         wantsToFight has to be asked (the default)
+     */
+    default Class<?> hostileTo() {
+        return null;
+    }
+
     /**
      * Is this Mob alive?
      *
@@ -15,17 +15,19 @@ public class Pair {
     */
     @Override
     public boolean equals(Object o) {
-        try {
-            Pair p=(Pair)o;
-            return ((p.x==this.x) && (p.y==this.y));
-        } catch (ClassCastException cce) {
+        if (!(o instanceof Pair)) {
             return false;
         }
+        Pair p=(Pair)o;
+        return ((p.x==this.x) && (p.y==this.y));
     }
 
+    /** Mixes both coordinates fully, so neighbouring grid cells spread
+    * over the whole table.
+    */
     @Override
     public int hashCode() {
-        int cap=55544;
-        return (((x%cap)*111%cap)+(y%cap))%cap;    
+        long h = CoordMap.pack(x, y) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
     }
 };
@@ -0,0 +1,237 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Loads text map files on a fork-join pool.
+* <br />A first pass over the file finds where each section starts for
+* every block of rooms. The blocks are then decoded in parallel: first
+* every Room is created from its description, then each block adds the
+* exits and contents of its own rooms in file order. Since every room is
+* only ever touched by one task, and always in file order, the resulting
+* map is the same as the one built by {@link MapIO#loadMapFast loadMapFast}.
+*/
+class ParallelMapLoader {
+    /** Largest file which can be held in one array */
+    static final long MAX_SIZE = Integer.MAX_VALUE - 8;
+    /** Fewest rooms per block */
+    private static final int MIN_BLOCK = 1024;
+
+    private final byte[] data;
+    private final Room[] rooms;
+    private final int block;
+    /* Start of the first description, exit block and content block of each
+    * block of rooms
+    */
+    private final int[] descAt, exitAt, thingAt;
+    /* Last player found in each block (or null) */
+    private final Player[] players;
+    private volatile boolean failed;
+
+    private ParallelMapLoader(byte[] data, int idcap, int blocks) {
+        this.data = data;
+        rooms = new Room[idcap];
+        block = (idcap + blocks - 1) / blocks;
+        descAt = new int[blocks];
+        exitAt = new int[blocks];
+        thingAt = new int[blocks];
+        players = new Player[blocks];
+    }
+
+    /** Read a file created with saveMap.
+    * @param filename file to read (at most MAX_SIZE bytes)
+    * @param pool pool to decode on
+    * @return the same as {@link MapIO#loadMap MapIO.loadMap}
+    */
+    static Object[] load(String filename, ForkJoinPool pool) {
+        try {
+            byte[] data = readAll(filename);
+            if (data == null) {
+                return null;
+            }
+            MapScanner in = new MapScanner(data);
+            if (!in.next()) {
+                return null;
+            }
+            int idcap = in.lineInt();
+            int blocks = Math.max(1, Math.min(
+                    pool.getParallelism() * 4, idcap / MIN_BLOCK));
+            ParallelMapLoader loader = new ParallelMapLoader(data, idcap,
+                    blocks);
+            if (idcap == 0 || !loader.scan(in)) {
+                return null;
+            }
+            pool.invoke(loader.new Decode(0, blocks, false));
+            if (!loader.failed) {
+                pool.invoke(loader.new Decode(0, blocks, true));
+            }
+            if (loader.failed) {
+                return null;
+            }
+            Object[] res = new Object[2];
+            for (Player p : loader.players) {
+                if (p != null) {
+                    res[0] = p;
+                }
+            }
+            res[1] = loader.rooms[0];
+            return res;
+        } catch (IOException ex) {
+            return null;
+        } catch (IndexOutOfBoundsException ex) {
+            return null;
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    /* Whole file as an array (null if it is too big) */
+    private static byte[] readAll(String filename) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > MAX_SIZE) {
+                return null;
+            }
+            ByteBuffer bb = ByteBuffer.allocate((int) size);
+            while (bb.hasRemaining() && ch.read(bb) >= 0) {
+                // keep reading
+            }
+            if (bb.hasRemaining()) {
+                return null;
+            }
+            return bb.array();
+        }
+    }
+
+    /* First pass: record block starts and check that every section
+    * has all of its lines.
+    */
+    private boolean scan(MapScanner in) throws IOException {
+        int idcap = rooms.length;
+        for (int i = 0; i < idcap; ++i) {
+            if (i % block == 0) {
+                descAt[i / block] = in.mark();
+            }
+            if (!in.next()) {
+                return false;
+            }
+        }
+        for (int pass = 0; pass < 2; ++pass) {
+            int[] at = (pass == 0) ? exitAt : thingAt;
+            for (int i = 0; i < idcap; ++i) {
+                if (i % block == 0) {
+                    at[i / block] = in.mark();
+                }
+                if (!in.next()) {
+                    return false;
+                }
+                int count = in.lineInt();
+                for (int j = 0; j < count; ++j) {
+                    if (!in.next()) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /* Create the rooms of block b */
+    private void makeRooms(MapScanner in, int b) throws IOException {
+        int end = Math.min(rooms.length, (b + 1) * block);
+        in.seek(descAt[b]);
+        for (int i = b * block; i < end; ++i) {
+            in.next();
+            rooms[i] = new Room(in.line());
+        }
+    }
+
+    /* Add exits and contents to the rooms of block b */
+    private boolean fillRooms(MapScanner in, int b) throws IOException {
+        int end = Math.min(rooms.length, (b + 1) * block);
+        in.seek(exitAt[b]);
+        for (int i = b * block; i < end; ++i) {
+            in.next();
+            int exitcount = in.lineInt();
+            for (int j = 0; j < exitcount; ++j) {
+                in.next();
+                int pos = in.indexOfSpace();
+                if (pos < 0) {
+                    return false;
+                }
+                int target = in.intAt(0, pos);
+                try {
+                    rooms[i].addExit(in.textFrom(pos + 1), rooms[target]);
+                } catch (ExitExistsException e) {
+                    return false;
+                } catch (NullRoomException e) {
+                    return false;
+                }
+            }
+        }
+        in.seek(thingAt[b]);
+        for (int i = b * block; i < end; ++i) {
+            in.next();
+            int itemcount = in.lineInt();
+            for (int j = 0; j < itemcount; ++j) {
+                in.next();
+                Thing t = in.thing();
+                if (t == null) {
+                    return false;
+                }
+                if (t instanceof Player) {
+                    players[b] = (Player) t;
+                } else {
+                    rooms[i].enter(t);
+                }
+            }
+        }
+        return true;
+    }
+
+    /* Runs one phase over a range of blocks, splitting in half until a
+    * single block is left.
+    */
+    private class Decode extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+        private final boolean fill;
+
+        Decode(int from, int to, boolean fill) {
+            this.from = from;
+            this.to = to;
+            this.fill = fill;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Decode(from, mid, fill),
+                        new Decode(mid, to, fill));
+                return;
+            }
+            if (failed) {
+                return;
+            }
+            MapScanner in = new MapScanner(data);
+            try {
+                if (!fill) {
+                    makeRooms(in, from);
+                } else if (!fillRooms(in, from)) {
+                    failed = true;
+                }
+            } catch (IOException ex) {
+                failed = true;
+            } catch (IndexOutOfBoundsException ex) {
+                failed = true;
+            } catch (NumberFormatException nfe) {
+                failed = true;
+            }
+        }
+    }
+}
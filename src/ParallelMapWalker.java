@@ -0,0 +1,245 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Visits all rooms reachable in a {@link RoomGraph RoomGraph}, one
+* breadth-first level at a time, expanding each level on a fork-join pool.
+* <br />Rooms are claimed in an atomic bitset, so each is reached once.
+* Unordered, visit() is called from the pool threads, in no particular
+* order, and must be thread-safe. Ordered, each level is sorted into the
+* order {@link MapWalker#walk MapWalker.walk} would find it in, and visit()
+* is called on the walking thread in exactly that order (while the pool
+* expands the level), so subclasses such as savers see the same sequence
+* as a sequential walk.
+*/
+public class ParallelMapWalker extends MapWalker {
+    /** Fewest rooms of a level expanded by one task */
+    private static final int MIN_CHUNK = 1024;
+
+    private final RoomGraph graph;
+    private final int first;
+    private final boolean ordered;
+    private final ForkJoinPool pool;
+    /* Bitset of rooms reached so far */
+    private AtomicLongArray reached;
+    /* Ordered: rooms reached in earlier levels, rooms visited so far, and
+    * for each room reached in this level, the lowest
+    * (position of the room it was found from, exit number) it was found by
+    */
+    private BitSet done;
+    private BitSet visitedIds;
+    private AtomicLongArray keys;
+    /* Current level, and the next one as it is found */
+    private int[] level, next;
+    private int levelSize;
+    private final AtomicInteger nextSize = new AtomicInteger();
+
+    /**
+    * Choose start room but <B>Do not start the walk process.</B>
+    * @param graph exits to follow
+    * @param start Room to begin exploring from
+    * @param ordered true to visit rooms in MapWalker order
+    * @param pool pool to expand levels on
+    * @throws IllegalArgumentException if start is not in graph
+    */
+    public ParallelMapWalker(RoomGraph graph, Room start, boolean ordered,
+            ForkJoinPool pool) {
+        super(start);
+        this.graph = graph;
+        this.first = graph.idOf(start);
+        this.ordered = ordered;
+        this.pool = pool;
+        if (first < 0) {
+            throw new IllegalArgumentException("start is not in the graph");
+        }
+    }
+
+    /**
+    * Walk on the common pool.
+    * @param graph exits to follow
+    * @param start Room to begin exploring from
+    * @param ordered true to visit rooms in MapWalker order
+    */
+    public ParallelMapWalker(RoomGraph graph, Room start, boolean ordered) {
+        this(graph, start, ordered, ForkJoinPool.commonPool());
+    }
+
+    /**
+    * @return the graph being walked
+    */
+    public RoomGraph getGraph() {
+        return graph;
+    }
+
+    @Override
+    protected void reset() {
+        super.reset();
+        int n = graph.size();
+        reached = new AtomicLongArray((n + 63) >>> 6);
+        level = new int[n];
+        next = new int[n];
+        if (ordered) {
+            done = new BitSet(n);
+            visitedIds = new BitSet(n);
+            keys = new AtomicLongArray(n);
+            for (int i = 0; i < n; ++i) {
+                keys.set(i, Long.MAX_VALUE);
+            }
+        }
+    }
+
+    /**
+    * Visit all reachable rooms and call visit().
+    */
+    @Override
+    public void walk() {
+        reset();
+        claim(first);
+        level[0] = first;
+        levelSize = 1;
+        if (ordered) {
+            done.set(first);
+        }
+        while (levelSize > 0) {
+            nextSize.set(0);
+            Expand expand = new Expand(0, levelSize);
+            if (ordered) {
+                ForkJoinTask<Void> task = pool.submit(expand);
+                for (int i = 0; i < levelSize; ++i) {
+                    visitedIds.set(level[i]);
+                    visit(level[i]);
+                }
+                task.join();
+                sortNext();
+            } else {
+                pool.invoke(expand);
+            }
+            int[] t = level;
+            level = next;
+            next = t;
+            levelSize = nextSize.get();
+        }
+    }
+
+    /**
+    * @param room Room to query
+    * @return true if room has been processed (ordered), or reached
+    *     (unordered)
+    */
+    @Override
+    public boolean hasVisited(Room room) {
+        if (room == null || reached == null) {
+            return false;
+        }
+        int id = graph.idOf(room);
+        if (id < 0) {
+            return false;
+        }
+        if (ordered) {
+            return visitedIds.get(id);
+        }
+        return (reached.get(id >>> 6) & (1L << id)) != 0;
+    }
+
+    /** process a room
+    * override to customise behaviour (default: visit(Room))
+    * @param id id of the room in the graph
+    */
+    protected void visit(int id) {
+        visit(graph.room(id));
+    }
+
+    /* true if this call marked id as reached */
+    private boolean claim(int id) {
+        int w = id >>> 6;
+        long bit = 1L << id;
+        long old;
+        do {
+            old = reached.get(w);
+            if ((old & bit) != 0) {
+                return false;
+            }
+        } while (!reached.compareAndSet(w, old, old | bit));
+        return true;
+    }
+
+    private void lowerKey(int id, long key) {
+        long old;
+        do {
+            old = keys.get(id);
+        } while (key < old && !keys.compareAndSet(id, old, key));
+    }
+
+    /* Put the next level in the order a sequential walk finds it: by the
+    * position of the room it was first found from, then by exit
+    */
+    private void sortNext() {
+        int n = nextSize.get();
+        long[] order = new long[n];
+        for (int i = 0; i < n; ++i) {
+            order[i] = keys.get(next[i]);
+        }
+        Arrays.parallelSort(order);
+        for (int i = 0; i < n; ++i) {
+            int from = level[(int) (order[i] >>> 32)];
+            int id = graph.target(graph.exitStart(from) + (int) order[i]);
+            next[i] = id;
+            done.set(id);
+        }
+    }
+
+    /* Expands a range of the current level, splitting in half until it is
+    * small enough.
+    */
+    private class Expand extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+
+        Expand(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int chunk = Math.max(MIN_CHUNK,
+                    levelSize / (pool.getParallelism() * 4));
+            if (to - from > chunk) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Expand(from, mid), new Expand(mid, to));
+                return;
+            }
+            int[] found = new int[64];
+            int count = 0;
+            for (int i = from; i < to; ++i) {
+                int id = level[i];
+                int start = graph.exitStart(id);
+                int end = graph.exitEnd(id);
+                for (int e = start; e < end; ++e) {
+                    int t = graph.target(e);
+                    if (ordered) {
+                        if (done.get(t)) {
+                            continue;
+                        }
+                        lowerKey(t, ((long) i << 32) | (e - start));
+                    }
+                    if (claim(t)) {
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, count * 2);
+                        }
+                        found[count++] = t;
+                    }
+                }
+                if (!ordered) {
+                    visit(id);
+                }
+            }
+            int at = nextSize.getAndAdd(count);
+            System.arraycopy(found, 0, next, at, count);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/** Finds shortest routes (fewest exits) between rooms with A*.
+* <br />The distance between the {@link BoundsMapper BoundsMapper}
+* coordinates of two rooms, divided by the longest distance any exit
+* spans, never overestimates how many exits apart they are, so it guides
+* the search without spoiling the result. Rooms without coordinates are
+* searched without guidance.
+* <br />Recent routes are cached. Adding an exit from or to a placed room
+* clears the cache (a route may now be shorter) and removing one drops
+* the routes which used it. Exits of other maps are ignored. The longest
+* exit is worked out again when the one removed may have been it, and
+* after the BoundsMapper lays the map out afresh.
+* Close the finder to stop it listening for changes.
+*/
+public class PathFinder implements Closeable {
+    /** Most routes remembered */
+    public static final int CACHE_SIZE = 64;
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final BoundsMapper bm;
+    /* Longest distance (|dx| + |dy|) spanned by any exit, or 0 if not
+    * worked out yet
+    */
+    private int maxStep;
+    /* bm.walks() when maxStep was worked out (a new layout spans exits
+    * differently)
+    */
+    private int layout;
+    private final Map<Key, List<Room>> cache =
+            new LinkedHashMap<Key, List<Room>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, List<Room>> e) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private final RoomListener listener;
+    private int hits, misses;
+
+    /* Cache key: identity of both rooms */
+    private static final class Key {
+        final Room from, to;
+
+        Key(Room from, Room to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Key) && ((Key) o).from == from
+                    && ((Key) o).to == to;
+        }
+
+        @Override
+        public int hashCode() {
+            return from.getId() * 31 + to.getId();
+        }
+    }
+
+    /* A room reached by the search, and how */
+    private static final class Step implements Comparable<Step> {
+        final Room room;
+        final Step back;
+        final int g;
+        final double f;
+
+        Step(Room room, Step back, int g, double f) {
+            this.room = room;
+            this.back = back;
+            this.g = g;
+            this.f = f;
+        }
+
+        /* Lowest estimate first; of equal estimates, the furthest along */
+        @Override
+        public int compareTo(Step o) {
+            int c = Double.compare(f, o.f);
+            return (c != 0) ? c : Integer.compare(o.g, g);
+        }
+    }
+
+    /**
+    * @param bm layout of the map (best kept up to date with track())
+    */
+    public PathFinder(BoundsMapper bm) {
+        this.bm = bm;
+        listener = new RoomListener() {
+            @Override
+            public void roomDirty(Room room) {
+            }
+
+            @Override
+            public void exitAdded(Room room, String label, Room target) {
+                added(room, target);
+            }
+
+            @Override
+            public void exitRemoved(Room room, String label, Room target) {
+                removed(room, target);
+            }
+        };
+        Room.addRoomListener(listener);
+    }
+
+    /** Find a shortest route.
+    * @param from Room to start in
+    * @param to Room to get to
+    * @return rooms along the way (from first, to last), or null if to
+    *     can't be reached
+    */
+    public synchronized List<Room> path(Room from, Room to) {
+        Key key = new Key(from, to);
+        List<Room> p = cache.get(key);
+        if (p != null) {
+            ++hits;
+            return p;
+        }
+        ++misses;
+        p = search(from, to);
+        if (p != null) {
+            p = Collections.unmodifiableList(p);
+            cache.put(key, p);
+        }
+        return p;
+    }
+
+    /** Find a shortest route as exit labels.
+    * @param from Room to start in
+    * @param to Room to get to
+    * @return labels of the exits to take in turn, or null if to can't
+    *     be reached
+    */
+    public List<String> route(Room from, Room to) {
+        List<Room> p = path(from, to);
+        if (p == null) {
+            return null;
+        }
+        List<String> labels = new ArrayList<String>(p.size() - 1);
+        for (int i = 1; i < p.size(); ++i) {
+            labels.add(label(p.get(i - 1), p.get(i)));
+        }
+        return labels;
+    }
+
+    /**
+    * @param from a Room
+    * @param to a Room
+    * @return the label of an exit from from to to (or null)
+    */
+    public static String label(Room from, Room to) {
+        for (Map.Entry<String, Room> e : from.getExits().entrySet()) {
+            if (e.getValue() == to) {
+                return e.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+    * @return number of path() calls answered from the cache
+    */
+    public synchronized int hits() {
+        return hits;
+    }
+
+    /**
+    * @return number of path() calls which had to search
+    */
+    public synchronized int misses() {
+        return misses;
+    }
+
+    /** Stop following changes to the map. */
+    @Override
+    public void close() {
+        Room.removeRoomListener(listener);
+    }
+
+    private List<Room> search(Room from, Room to) {
+        if (maxStep == 0 || layout != bm.walks()) {
+            layout = bm.walks();
+            maxStep = longestStep();
+        }
+        long goal = bm.positions.get(to, NONE);
+        Map<Room, Step> best = new HashMap<Room, Step>();
+        PriorityQueue<Step> open = new PriorityQueue<Step>();
+        Step s = new Step(from, null, 0, estimate(from, goal));
+        best.put(from, s);
+        open.add(s);
+        while (!open.isEmpty()) {
+            Step cur = open.poll();
+            if (best.get(cur.room) != cur) {
+                // superseded by a shorter way to the same room
+                continue;
+            }
+            if (cur.room == to) {
+                List<Room> p = new ArrayList<Room>(cur.g + 1);
+                for (Step t = cur; t != null; t = t.back) {
+                    p.add(t.room);
+                }
+                Collections.reverse(p);
+                return p;
+            }
+            int g = cur.g + 1;
+            cur.room.forEachExit((label, e) -> {
+                Step n = best.get(e);
+                if (n == null || g < n.g) {
+                    n = new Step(e, cur, g, g + estimate(e, goal));
+                    best.put(e, n);
+                    open.add(n);
+                }
+            });
+        }
+        return null;
+    }
+
+    /* Lower bound on the exits between room and goal */
+    private double estimate(Room room, long goal) {
+        long p = bm.positions.get(room, NONE);
+        if (p == NONE || goal == NONE) {
+            return 0;
+        }
+        return (double) distance(p, goal) / maxStep;
+    }
+
+    private static int distance(long p, long q) {
+        return Math.abs(CoordMap.x(p) - CoordMap.x(q))
+                + Math.abs(CoordMap.y(p) - CoordMap.y(q));
+    }
+
+    /* Longest distance spanned by an exit between placed rooms (at least 1) */
+    private int longestStep() {
+        int[] longest = {1};
+        bm.positions.forEach((room, x, y) -> {
+            long p = CoordMap.pack(x, y);
+            room.forEachExit((label, e) -> {
+                long q = bm.positions.get(e, NONE);
+                if (q != NONE) {
+                    longest[0] = Math.max(longest[0], distance(p, q));
+                }
+            });
+        });
+        return longest[0];
+    }
+
+    private synchronized void added(Room room, Room target) {
+        long p = bm.positions.get(room, NONE);
+        long q = bm.positions.get(target, NONE);
+        if (p == NONE && q == NONE) {
+            return;                 // some other map
+        }
+        cache.clear();
+        if (maxStep != 0 && p != NONE && q != NONE) {
+            maxStep = Math.max(maxStep, distance(p, q));
+        }
+    }
+
+    private synchronized void removed(Room room, Room target) {
+        long p = bm.positions.get(room, NONE);
+        long q = bm.positions.get(target, NONE);
+        if (p == NONE && q == NONE) {
+            return;                 // some other map
+        }
+            // a longest step left too long only weakens the guidance
+        if (p != NONE && q != NONE && distance(p, q) == maxStep) {
+            maxStep = 0;
+        }
+        Iterator<List<Room>> it = cache.values().iterator();
+        while (it.hasNext()) {
+            List<Room> route = it.next();
+            for (int i = 1; i < route.size(); ++i) {
+                if (route.get(i - 1) == room && route.get(i) == target) {
+                    it.remove();
+                    break;
+                }
+            }
+        }
+    }
+}
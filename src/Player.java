@@ -1,6 +1,7 @@
 import java.util.Collections;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.function.Consumer;
 
 
 /**
@@ -16,6 +17,8 @@ public abstract class Player extends Thing implements Mob {
     private static final int MAX_HEALTH = 10;
     // Our inventory
     private List<Thing> contents;
+    // Read only view of it (made when first asked for)
+    private transient List<Thing> view;
 
     /**
      * A player with default health.
@@ -94,10 +97,33 @@ public abstract class Player extends Thing implements Mob {
     /**
      * What is in the player's inventory.
      *
-     * @return Things in the inventory
+     * @return Things in the inventory (the same read only view every time)
      */
     public List<Thing> getContents() {
-        return Collections.unmodifiableList(this.contents);
+        List<Thing> v = view;
+        if (v == null) {
+            v = Collections.unmodifiableList(this.contents);
+            view = v;
+        }
+        return v;
+    }
+
+    /**
+     * Pass each Thing in the player's inventory to action.
+     *
+     * @param action told each Thing
+     */
+    public void forEachThing(Consumer<Thing> action) {
+        contents.forEach(action);
+    }
+
+    /**
+     * How many Things is the player carrying?
+     *
+     * @return number of Things in the inventory
+     */
+    public int contentCount() {
+        return contents.size();
     }
 
     /**
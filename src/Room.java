@@ -1,12 +1,32 @@
 import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * Building block for the map. Contains {@link Thing Thing}s Note: all exit labels are case sensitive.
+ * <br />Rooms keep track of whether they have changed since they were
+ * last saved (see {@link #isDirty isDirty}), so a map can be saved by
+ * writing only the Rooms which changed (see {@link MapJournal MapJournal}).
+ * <br />Rooms belonging to a {@link RoomStore RoomStore} are read from disk
+ * the first time they are used and may be released again while clean.
+ * <br />Listeners are also told about every exit added or removed (except
+ * while a paged Room is being read in), so layouts can follow changes.
+ * <br />The four compass exits (see {@link Direction Direction}) are kept
+ * in slots of their own; a sorted map is only made for other labels.
  *
  * @author JF
  * @serial exclude
@@ -15,10 +35,34 @@ public class Room implements Serializable {
 
     // Description for this Room
     private String description;
-    // Exits from this Room. Strings are names of the exits
-    private Map<String, Room> exits;
+    // Compass exits, by Direction ordinal (null until there is one)
+    private Room[] compass;
+    // Other exits from this Room. Strings are names of the exits
+    // (null until there is one)
+    private TreeMap<String, Room> exits;
     // Things in this Room
-    private List<Thing> contents;
+    private ThingSet contents;
+    // Read only views of the exits and contents (made when first asked
+    // for; the contents view goes with the contents)
+    private transient Map<String, Room> exitView;
+    private transient List<Thing> contentsView;
+    // Changed since last marked clean? (new Rooms start dirty)
+    private boolean dirty = true;
+    // Store this Room is paged in from (null for ordinary Rooms) and
+    // its number there. Paged out Rooms have null contents.
+    private RoomStore store;
+    private int storeId;
+    // Being filled in by its store (changes are not reported)
+    private boolean filling;
+    // Number for hashing in primitive tables (not saved)
+    private final int id = NEXT_ID.getAndIncrement();
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    // Told whenever a clean Room becomes dirty, and about exit changes
+    private static final List<RoomListener> listeners =
+            new CopyOnWriteArrayList<RoomListener>();
 
     /*
      * Replace characters in description strings
@@ -26,8 +70,8 @@ public class Room implements Serializable {
      * correctly during construction
      */    
     private void replaceDescription(String description) {
-        this.description = description.replace('\n', '*')
-                .replace('\r', '*');
+        this.description = StringPool.share(
+                StringPool.clean(description, false));
     }
 
     /**
@@ -36,8 +80,85 @@ public class Room implements Serializable {
      */
     public Room(String description) {
         replaceDescription(description);
-        exits = new TreeMap<String, Room>();
-        contents = new LinkedList<Thing>();
+        contents = new ThingSet();
+    }
+
+    /*
+     * A paged out Room, which store will read in when it is first used.
+     */
+    Room(RoomStore store, int id) {
+        this.store = store;
+        storeId = id;
+        dirty = false;
+    }
+
+    /*
+     * Make sure a paged Room is in memory (and tell its store it was used)
+     */
+    private void use() {
+        if (store != null) {
+            store.use(this);
+        }
+    }
+
+    /*
+     * Called by RoomStore to fill in a paged out Room. Nothing done while
+     * filling it in is reported to listeners; the store marks it clean
+     * afterwards.
+     */
+    void pageIn(String description) {
+        replaceDescription(description);
+        compass = null;
+        exits = null;
+        contents = new ThingSet();
+        contentsView = null;
+        dirty = true;
+        filling = true;
+    }
+
+    /*
+     * Called by RoomStore once a paged Room has been filled in.
+     */
+    void pageInDone() {
+        filling = false;
+        dirty = false;
+    }
+
+    /*
+     * Called by RoomStore to release a clean Room's state.
+     */
+    void pageOut() {
+        filling = false;
+        description = null;
+        compass = null;
+        exits = null;
+        contents = null;
+        contentsView = null;
+    }
+
+    /*
+     * Is this Room's state in memory? (Always true for ordinary Rooms)
+     */
+    boolean isPagedIn() {
+        return contents != null;
+    }
+
+    /**
+     * A number for this Room, different for every Room made (until 2^32
+     * have been made). Ids are not saved with the map.
+     *
+     * @return the id
+     */
+    public int getId() {
+        return id;
+    }
+
+    RoomStore getStore() {
+        return store;
+    }
+
+    int getStoreId() {
+        return storeId;
     }
 
     /**
@@ -46,6 +167,7 @@ public class Room implements Serializable {
      * @return Description
      */
     public String getDescription() {
+        use();
         return description;
     }
 
@@ -56,25 +178,162 @@ public class Room implements Serializable {
      * @param description new Description
      */
     public void setDescription(String description) {
+        use();
         replaceDescription(description);
+        markDirty();
+    }
+
+    /**
+     * Has this Room changed since it was last marked clean? New Rooms
+     * start out dirty.
+     *
+     * @return true if the description, exits or contents have changed
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Record that this Room has changed. Every method which changes the
+     * Room calls this, but it must be called directly when a Thing in
+     * the Room changes (eg: after a fight) since Things do not know which
+     * Room they are in. Listeners are told if the Room was clean.
+     */
+    public void markDirty() {
+        if (!dirty) {
+            dirty = true;
+            for (RoomListener l : listeners) {
+                l.roomDirty(this);
+            }
+        }
+    }
+
+    /**
+     * Record that this Room has been saved.
+     */
+    public void markClean() {
+        dirty = false;
+    }
+
+    /**
+     * Be told whenever any clean Room becomes dirty, and whenever an exit
+     * is added to or removed from any Room.
+     *
+     * @param listener listener to add
+     */
+    public static void addRoomListener(RoomListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener listener to stop telling about changes
+     */
+    public static void removeRoomListener(RoomListener listener) {
+        listeners.remove(listener);
     }
 
     /**
      * What exits are there from this Room?
      *
-     * @return Non-modifiable map of names to Rooms
+     * @return Non-modifiable map of names to Rooms (in order of name).
+     *         The same view is returned every time.
      */
     public Map<String, Room> getExits() {
-        return Collections.unmodifiableMap(this.exits);
+        use();
+        if (exitView == null) {
+            exitView = new ExitView();
+        }
+        return exitView;
+    }
+
+    /**
+     * Pass each exit from this Room to action, in the same order as
+     * getExits(). Nothing is allocated unless the Room has exits other
+     * than the four compass ones.
+     *
+     * @param action told each exit's name and the Room it goes to
+     */
+    public void forEachExit(BiConsumer<String, Room> action) {
+        use();
+        if (exits == null) {
+            if (compass != null) {
+                for (int i = 0; i < compass.length; ++i) {
+                    if (compass[i] != null) {
+                        action.accept(DIRECTIONS[i].getLabel(), compass[i]);
+                    }
+                }
+            }
+            return;
+        }
+        for (Map.Entry<String, Room> e : getExits().entrySet()) {
+            action.accept(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * How many exits does this Room have?
+     *
+     * @return number of exits
+     */
+    public int exitCount() {
+        use();
+        int n = (exits == null) ? 0 : exits.size();
+        if (compass != null) {
+            for (Room r : compass) {
+                if (r != null) {
+                    ++n;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Where does a compass exit from this Room go?
+     *
+     * @param direction which exit
+     * @return the Room it leads to, or null if there is no such exit
+     */
+    public Room getExit(Direction direction) {
+        use();
+        return (compass == null) ? null : compass[direction.ordinal()];
     }
 
     /**
      * What Things are in this Room?
      *
-     * @return Non-modifiable List of Things in the Room
+     * @return Non-modifiable List of Things in the Room (the same view
+     *         every time)
      */
     public List<Thing> getContents() {
-        return Collections.unmodifiableList(this.contents);
+        use();
+        List<Thing> view = contentsView;
+        if (view == null) {
+            view = Collections.unmodifiableList(this.contents);
+            contentsView = view;
+        }
+        return view;
+    }
+
+    /**
+     * Pass each Thing in this Room to action, in the order they entered.
+     * Nothing is allocated.
+     *
+     * @param action told each Thing
+     */
+    public void forEachThing(Consumer<Thing> action) {
+        use();
+        contents.forEach(action);
+    }
+
+    /**
+     * How many Things are in this Room?
+     *
+     * @return number of Things
+     */
+    public int contentCount() {
+        use();
+        return contents.size();
     }
 
     /**
@@ -87,13 +346,31 @@ public class Room implements Serializable {
      */
     public void addExit(String name, Room target) throws ExitExistsException,
             NullRoomException {
-        if (exits.containsKey(name)) {
+        use();
+        Direction d = Direction.of(name);
+        if (exit(d, name) != null) {
             throw new ExitExistsException();
         }
         if (target == null) {
             throw new NullRoomException();
         }
-        exits.put(name, target);
+        if (d != null) {
+            if (compass == null) {
+                compass = new Room[4];
+            }
+            compass[d.ordinal()] = target;
+        } else {
+            if (exits == null) {
+                exits = new TreeMap<String, Room>();
+            }
+            exits.put(StringPool.share(name), target);
+        }
+        markDirty();
+        if (!filling) {
+            for (RoomListener l : listeners) {
+                l.exitAdded(this, name, target);
+            }
+        }
     }
 
     /**
@@ -103,7 +380,12 @@ public class Room implements Serializable {
      * @param name Name of exit to remove
      */
     public void removeExit(String name) {
-        exits.remove(name);
+        use();
+        Room target = take(name);
+        if (target != null) {
+            markDirty();
+            exitRemoved(name, target);
+        }
     }
 
     /**
@@ -112,11 +394,47 @@ public class Room implements Serializable {
      * @param item Thing to add
      */
     public void enter(Thing item) {
-        if (!contents.contains(item)) {
-            contents.add(item);
+        use();
+        if (contents.append(item)) {
+            markDirty();
         }
     }
 
+    /**
+     * Is item in this Room?
+     *
+     * @param item Thing to look for
+     * @return true if item is in the Room
+     */
+    public boolean contains(Thing item) {
+        use();
+        return contents.contains(item);
+    }
+
+    /**
+     * Find a Thing in this Room by name.
+     *
+     * @param name short description to look for
+     * @return the Thing with that short description which entered first,
+     *         or null if there is none
+     */
+    public Thing findByShortDescription(String name) {
+        use();
+        return contents.first(name);
+    }
+
+    /**
+     * Find every Thing in this Room with a name.
+     *
+     * @param name short description to look for
+     * @return the Things with that short description, in the order they
+     *         entered
+     */
+    public List<Thing> findAllByShortDescription(String name) {
+        use();
+        return contents.all(name);
+    }
+
     /**
      * Remove item from Room. Note: will fail if item is not in the Room or if
      * something wants to fight item.
@@ -125,25 +443,217 @@ public class Room implements Serializable {
      * @return true if removal was successful
      */
     public boolean leave(Thing item) {
+        use();
         if (!contents.contains(item)) {
             return false;
         }
-        boolean trap = false;
-        if (item instanceof Mob) {
-            for (Thing i : contents) {
-                if ((i instanceof Mob) && (i != item)) {
-                    if (((Mob) i).wantsToFight((Mob) item)) {
-                        trap = true;
-                        break;
-                    }
+        if ((item instanceof Mob) && contents.trapped(item)) {
+            return false;
+        }
+        contents.delete(item);
+        markDirty();
+        return true;
+    }
+
+    /*
+     * Remove every exit and Thing, for loaders which replace the saved
+     * state of an existing Room. (No checks for fights.)
+     */
+    void clear() {
+        use();
+        if (!listeners.isEmpty()) {
+            for (Map.Entry<String, Room> e : new ArrayList<Map.Entry<String,
+                    Room>>(new ExitView().entrySet())) {
+                take(e.getKey());
+                exitRemoved(e.getKey(), e.getValue());
+            }
+        }
+        compass = null;
+        exits = null;
+        contents.clear();
+        markDirty();
+    }
+
+    /*
+     * The exit labelled name (d is Direction.of(name)), or null
+     */
+    private Room exit(Direction d, String name) {
+        if (d != null) {
+            return (compass == null) ? null : compass[d.ordinal()];
+        }
+        return (exits == null) ? null : exits.get(name);
+    }
+
+    /*
+     * Remove the exit labelled name (without telling anyone)
+     */
+    private Room take(String name) {
+        Direction d = Direction.of(name);
+        if (d == null) {
+            return (exits == null) ? null : exits.remove(name);
+        }
+        if (compass == null) {
+            return null;
+        }
+        Room target = compass[d.ordinal()];
+        compass[d.ordinal()] = null;
+        return target;
+    }
+
+    private void exitRemoved(String name, Room target) {
+        if (filling) {
+            return;
+        }
+        for (RoomListener l : listeners) {
+            l.exitRemoved(this, name, target);
+        }
+    }
+
+    /*
+     * Serialise this Room, and everything reachable from it, as flat
+     * tables rather than following exits recursively.
+     */
+    private Object writeReplace() {
+        return new MapSnapshot(this);
+    }
+
+    /*
+     * Read only Map of every exit, compass slots and other labels merged
+     * in order of label (as a TreeMap of them all would list them)
+     */
+    private final class ExitView extends AbstractMap<String, Room> {
+        @Override
+        public int size() {
+            return exitCount();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Room get(Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            String name = (String) key;
+            return exit(Direction.of(name), name);
+        }
+
+        @Override
+        public Set<Map.Entry<String, Room>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Room>>() {
+                @Override
+                public int size() {
+                    return ExitView.this.size();
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, Room>> iterator() {
+                    return new ExitIterator<Map.Entry<String, Room>>() {
+                        @Override
+                        Map.Entry<String, Room> current() {
+                            return new AbstractMap.SimpleImmutableEntry<
+                                    String, Room>(label, room);
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return new AbstractSet<String>() {
+                @Override
+                public int size() {
+                    return ExitView.this.size();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return containsKey(o);
+                }
+
+                @Override
+                public Iterator<String> iterator() {
+                    return new ExitIterator<String>() {
+                        @Override
+                        String current() {
+                            return label;
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public Collection<Room> values() {
+            return new AbstractCollection<Room>() {
+                @Override
+                public int size() {
+                    return ExitView.this.size();
+                }
+
+                @Override
+                public Iterator<Room> iterator() {
+                    return new ExitIterator<Room>() {
+                        @Override
+                        Room current() {
+                            return room;
+                        }
+                    };
                 }
+            };
+        }
+    }
+
+    /*
+     * Merges the compass slots (already in order of label) with the other
+     * exits; current() gives what to return for each exit
+     */
+    private abstract class ExitIterator<T> implements Iterator<T> {
+        private final Room[] slots = compass;
+        private final Iterator<Map.Entry<String, Room>> others =
+                (exits == null) ? null : exits.entrySet().iterator();
+        private int slot = nextSlot(0);
+        private Map.Entry<String, Room> other =
+                (others != null && others.hasNext()) ? others.next() : null;
+        // the exit just passed
+        String label;
+        Room room;
+
+        abstract T current();
+
+        private int nextSlot(int from) {
+            while (slots != null && from < slots.length
+                    && slots[from] == null) {
+                ++from;
             }
+            return (slots == null) ? 4 : from;
         }
-        if (trap) {
-            return false;
+
+        @Override
+        public boolean hasNext() {
+            return slot < 4 || other != null;
+        }
+
+        @Override
+        public T next() {
+            if (slot < 4 && (other == null || DIRECTIONS[slot].getLabel()
+                    .compareTo(other.getKey()) < 0)) {
+                label = DIRECTIONS[slot].getLabel();
+                room = slots[slot];
+                slot = nextSlot(slot + 1);
+            } else if (other != null) {
+                label = other.getKey();
+                room = other.getValue();
+                other = others.hasNext() ? others.next() : null;
+            } else {
+                throw new NoSuchElementException();
+            }
+            return current();
         }
-        contents.remove(item);
-        return true;
     }
 
     /** Connects two rooms both ways.
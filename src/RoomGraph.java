@@ -0,0 +1,150 @@
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/** The exits of every room reachable from a root, as int arrays.
+* <br />Each room gets a dense id, in the order a {@link MapWalker MapWalker}
+* from the root would visit it (so the root is 0). The exits of room id
+* are edges [exitStart(id), exitEnd(id)), in getExits() order, and edge e
+* leads to room target(e) through the exit labelled label(e).
+* <br />This is a snapshot: it does not change when exits are added or
+* removed afterwards, so take a new one after that.
+*/
+public class RoomGraph {
+    private final Room[] rooms;
+    private final Map<Room, Integer> ids;
+    /* Edges of room i are [start[i], start[i + 1]) */
+    private final int[] start;
+    private final int[] targets;
+    private final String[] labels;
+
+    private RoomGraph(Room[] rooms, Map<Room, Integer> ids, int[] start,
+            int[] targets, String[] labels) {
+        this.rooms = rooms;
+        this.ids = ids;
+        this.start = start;
+        this.targets = targets;
+        this.labels = labels;
+    }
+
+    /** Number every room reachable from root.
+    * @param root Room to begin exploring from
+    * @return the graph
+    */
+    public static RoomGraph of(Room root) {
+        Map<Room, Integer> ids = new IdentityHashMap<Room, Integer>();
+        Room[] rooms = new Room[16];
+        int[] start = new int[17];
+        int[] targets = new int[16];
+        String[] labels = new String[16];
+        int n = 0;
+        int m = 0;
+        ids.put(root, n);
+        rooms[n++] = root;
+        // rooms are numbered as they are queued, which is the order
+        // a MapWalker visits them in
+        for (int i = 0; i < n; ++i) {
+            for (Map.Entry<String, Room> e : rooms[i].getExits().entrySet()) {
+                Room r = e.getValue();
+                Integer t = ids.get(r);
+                if (t == null) {
+                    t = n;
+                    ids.put(r, t);
+                    if (n == rooms.length) {
+                        rooms = Arrays.copyOf(rooms, n * 2);
+                        start = Arrays.copyOf(start, n * 2 + 1);
+                    }
+                    rooms[n++] = r;
+                }
+                if (m == targets.length) {
+                    targets = Arrays.copyOf(targets, m * 2);
+                    labels = Arrays.copyOf(labels, m * 2);
+                }
+                targets[m] = t;
+                labels[m] = e.getKey();
+                ++m;
+            }
+            start[i + 1] = m;
+        }
+        return new RoomGraph(Arrays.copyOf(rooms, n),
+                ids, Arrays.copyOf(start, n + 1),
+                Arrays.copyOf(targets, m), Arrays.copyOf(labels, m));
+    }
+
+    /**
+    * @return number of rooms
+    */
+    public int size() {
+        return rooms.length;
+    }
+
+    /**
+    * @return number of exits (over all rooms)
+    */
+    public int exitCount() {
+        return targets.length;
+    }
+
+    /**
+    * @param id room id
+    * @return the room
+    */
+    public Room room(int id) {
+        return rooms[id];
+    }
+
+    /**
+    * @param room Room to look up
+    * @return its id, or -1 if it is not in the graph
+    */
+    public int idOf(Room room) {
+        Integer id = ids.get(room);
+        return (id == null) ? -1 : id;
+    }
+
+    /**
+    * @param id room id
+    * @return first edge leaving the room
+    */
+    public int exitStart(int id) {
+        return start[id];
+    }
+
+    /**
+    * @param id room id
+    * @return one past the last edge leaving the room
+    */
+    public int exitEnd(int id) {
+        return start[id + 1];
+    }
+
+    /**
+    * @param edge edge number
+    * @return id of the room it leads to
+    */
+    public int target(int edge) {
+        return targets[edge];
+    }
+
+    /**
+    * @param edge edge number
+    * @return label of the exit
+    */
+    public String label(int edge) {
+        return labels[edge];
+    }
+
+    /**
+    * @param id room id
+    * @param label exit label
+    * @return id of the room through that exit, or -1 if there is none
+    */
+    public int exit(int id, String label) {
+        for (int e = start[id]; e < start[id + 1]; ++e) {
+            if (labels[e].equals(label)) {
+                return targets[e];
+            }
+        }
+        return -1;
+    }
+}
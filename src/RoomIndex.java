@@ -0,0 +1,73 @@
+import java.util.Arrays;
+
+/** Gives Rooms dense int indexes (0, 1, 2, ...) in the order they are
+* added, so per-room data can be kept in arrays.
+* <br />Lookups use an open-addressing table (linear probing, at most
+* half full) hashed on {@link Room#getId Room ids}; Rooms are compared
+* by identity. Rooms are never removed.
+*/
+final class RoomIndex {
+    private Room[] rooms = new Room[16];
+    private int size;
+    /* Table of (index + 1), or 0 for empty slots */
+    private int[] slots = new int[32];
+
+    /**
+    * @return number of rooms
+    */
+    int size() {
+        return size;
+    }
+
+    /**
+    * @param index index of a room
+    * @return the room
+    */
+    Room room(int index) {
+        return rooms[index];
+    }
+
+    /**
+    * @param room Room to look up
+    * @return its index, or -1 if it has not been added
+    */
+    int indexOf(Room room) {
+        if (room == null) {
+            return -1;
+        }
+        return slots[slot(room)] - 1;
+    }
+
+    /**
+    * @param room Room to add
+    * @return its index (a new one if it was not there already)
+    */
+    int add(Room room) {
+        int i = slot(room);
+        if (slots[i] != 0) {
+            return slots[i] - 1;
+        }
+        if (size == rooms.length) {
+            rooms = Arrays.copyOf(rooms, size * 2);
+        }
+        rooms[size] = room;
+        slots[i] = ++size;
+        if (size * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int j = 0; j < size; ++j) {
+                slots[slot(rooms[j])] = j + 1;
+            }
+        }
+        return size - 1;
+    }
+
+    private int slot(Room room) {
+        int mask = slots.length - 1;
+        int h = room.getId() * 0x9E3779B9;
+        int i = (h ^ (h >>> 16)) & mask;
+        while (slots[i] != 0 && rooms[slots[i] - 1] != room) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+}
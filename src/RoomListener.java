@@ -0,0 +1,27 @@
+/** Told about changes to {@link Room Room}s.
+* Listeners are shared by every Room (see
+* {@link Room#addRoomListener Room.addRoomListener}) and are called on
+* whichever thread made the change.
+*/
+public interface RoomListener {
+    /** A Room which was clean has changed.
+    * @param room the Room which changed
+    */
+    void roomDirty(Room room);
+
+    /** An exit has been added to a Room.
+    * @param room the Room the exit leaves from
+    * @param label label of the exit
+    * @param target the Room the exit goes to
+    */
+    default void exitAdded(Room room, String label, Room target) {
+    }
+
+    /** An exit has been removed from a Room.
+    * @param room the Room the exit left from
+    * @param label label of the exit
+    * @param target the Room the exit went to
+    */
+    default void exitRemoved(Room room, String label, Room target) {
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/** Finds the rooms reachable from a start room as they are asked for.
+* <br />Rooms are taken from a queue and their unseen exits queued behind
+* them, so an unsplit spliterator gives rooms in the same order as
+* {@link MapWalker#walk MapWalker.walk}, and only looks at rooms next to
+* the ones it has given so far. Spliterators made for parallel use share a
+* concurrent set of seen rooms, and a split takes half of the queue.
+*/
+class RoomSpliterator implements Spliterator<Room> {
+    /** Most rooms expanded by trySplit() to find something to hand over */
+    private static final int SPLIT_EXPANSION = 64;
+
+    /* Rooms already queued by any spliterator sharing this set */
+    private final Set<Room> seen;
+    private final boolean concurrent;
+    /* Rooms whose exits have been queued but which have not been given */
+    private final Deque<Room> ready = new ArrayDeque<Room>();
+    /* Rooms still to expand and give */
+    private final Deque<Room> todo;
+    private long estimate;
+    /* offer, made once so expanding a room allocates nothing */
+    private final BiConsumer<String, Room> queue = this::offer;
+
+    /**
+    * @param start Room to begin exploring from
+    * @param concurrent true if the spliterator may be split
+    */
+    RoomSpliterator(Room start, boolean concurrent) {
+        this.concurrent = concurrent;
+        seen = concurrent
+                ? Collections.newSetFromMap(
+                        new ConcurrentHashMap<Room, Boolean>())
+                : new HashSet<Room>();
+        todo = new ArrayDeque<Room>();
+        seen.add(start);
+        todo.add(start);
+        estimate = Long.MAX_VALUE;
+    }
+
+    private RoomSpliterator(RoomSpliterator parent, Deque<Room> todo) {
+        concurrent = true;
+        seen = parent.seen;
+        this.todo = todo;
+        estimate = parent.estimate;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Room> action) {
+        Room r = ready.pollFirst();
+        if (r == null) {
+            r = todo.pollFirst();
+            if (r == null) {
+                return false;
+            }
+            expand(r);
+        }
+        action.accept(r);
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Room> action) {
+        Room r;
+        while ((r = ready.pollFirst()) != null) {
+            action.accept(r);
+        }
+        while ((r = todo.pollFirst()) != null) {
+            expand(r);
+            action.accept(r);
+        }
+    }
+
+    /**
+    * @return null unless made for parallel use and there is work to share
+    */
+    @Override
+    public Spliterator<Room> trySplit() {
+        if (!concurrent) {
+            return null;
+        }
+        // work through the start of the map until there is
+        // more than one room left to explore
+        for (int i = 0; i < SPLIT_EXPANSION && todo.size() == 1; ++i) {
+            Room r = todo.pollFirst();
+            expand(r);
+            ready.addLast(r);
+        }
+        int n = todo.size() / 2;
+        if (n == 0) {
+            return null;
+        }
+        Deque<Room> half = new ArrayDeque<Room>(n);
+        for (int i = 0; i < n; ++i) {
+            half.addFirst(todo.pollLast());
+        }
+        estimate >>>= 1;
+        return new RoomSpliterator(this, half);
+    }
+
+    /**
+    * @return a guess (the size is not known in advance), or 0 if there
+    *     is nothing left
+    */
+    @Override
+    public long estimateSize() {
+        return (ready.isEmpty() && todo.isEmpty()) ? 0 : estimate;
+    }
+
+    @Override
+    public int characteristics() {
+        return DISTINCT | NONNULL;
+    }
+
+    /* Queue the exits of r which no spliterator has seen */
+    private void expand(Room r) {
+        r.forEachExit(queue);
+    }
+
+    /* Queue e if no spliterator has seen it */
+    private void offer(String label, Room e) {
+        if (seen.add(e)) {
+            todo.addLast(e);
+        }
+    }
+}
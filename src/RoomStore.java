@@ -0,0 +1,451 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/** Rooms of a text map file, read from disk only when they are used.
+* <br />Opening a store reads (or builds) an index giving where each
+* room's lines start in the map file. Every Room starts out paged out:
+* a small object holding just its number. The first time one of its
+* methods is called (eg: when a walker follows an exit to it) its
+* description, exits and contents are read from the map file.
+* <br />At most <code>capacity</code> unchanged rooms are kept in memory;
+* after that the least recently used one is paged out again. Rooms which
+* have been changed (see {@link Room#isDirty Room.isDirty}) are pinned in
+* memory until they are marked clean. A paged out Room is only a few
+* dozen bytes (one is kept for every room used, so that each room is
+* always the same object), so the heap needed is mostly set by the
+* capacity rather than by the size of the map.
+* <br />The index is kept next to the map in <code>name.idx</code> and is
+* rebuilt if the map file changes. Its layout is: magic <code>CRWI</code>,
+* version (int), map size (long), map modification time (long), number
+* of rooms (int), room holding the player (int, -1 for none), then the
+* file offsets (longs) of every description, every exit count and every
+* item count.
+* <br />A store is not meant for use by several threads at once.
+*/
+public class RoomStore implements Closeable {
+    /** Added to the map filename to get the index filename */
+    public static final String SUFFIX = ".idx";
+    /** Rooms kept in memory unless told otherwise */
+    public static final int DEFAULT_CAPACITY = 10000;
+    /* Index layout */
+    private static final byte[] MAGIC = {'C', 'R', 'W', 'I'};
+    private static final int VERSION = 1;
+    private static final int HEADER = 32;
+    /* Bytes read at a time from the map file for each section */
+    private static final int BUFFER = 8192;
+
+    private final FileChannel map;
+    private final MappedByteBuffer index;
+    private final int rooms;
+    private final int capacity;
+    /* One scanner per section, so that rooms used in file order read
+    * each section sequentially
+    */
+    private final MapScanner descs, exits, things;
+    /* Every Room used so far (created when first asked for) */
+    private final Room[] shells;
+    /* Clean rooms in memory, least recently used first */
+    private final LinkedHashMap<Room, Room> lru;
+    /* Changed rooms (kept in memory) */
+    private final Set<Room> pinned = new HashSet<Room>();
+    private final RoomListener listener = this::roomDirty;
+    private final Room root;
+    private Player player;
+    /* Room being read in (its own method calls are not counted) */
+    private Room loading;
+    private long hits, misses, evictions;
+
+    private RoomStore(FileChannel map, MappedByteBuffer index, int capacity)
+            throws IOException {
+        this.map = map;
+        this.index = index;
+        this.capacity = capacity;
+        rooms = index.getInt(24);
+        shells = new Room[rooms];
+        descs = new MapScanner(map, BUFFER);
+        exits = new MapScanner(map, BUFFER);
+        things = new MapScanner(map, BUFFER);
+        lru = new LinkedHashMap<Room, Room>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Room, Room> e) {
+                if (size() <= RoomStore.this.capacity) {
+                    return false;
+                }
+                e.getKey().pageOut();
+                ++evictions;
+                return true;
+            }
+        };
+        root = room(0);
+        int at = index.getInt(28);
+        if (at >= 0) {
+                // read the player's room to find the player
+            Player[] holder = new Player[1];
+            Room r = new Room(this, at);
+            load(r, holder);
+            player = holder[0];
+            r.pageOut();
+        }
+    }
+
+    /** Open a text map file (created with saveMap) for paging.
+    * Builds the index if there isn't an up to date one.
+    * @param filename map file
+    * @param capacity most unchanged rooms to keep in memory (at least 1)
+    * @return the store or null if the map (or index) can not be read
+    */
+    public static RoomStore open(String filename, int capacity) {
+        if (capacity < 1) {
+            return null;
+        }
+        FileChannel map = null;
+        try {
+            Path path = Paths.get(filename);
+            Path idx = Paths.get(filename + SUFFIX);
+            map = FileChannel.open(path, StandardOpenOption.READ);
+            long size = Files.size(path);
+            long time = Files.getLastModifiedTime(path).toMillis();
+            if (!current(idx, size, time) && !buildIndex(path, idx, size,
+                    time)) {
+                map.close();
+                return null;
+            }
+            MappedByteBuffer index;
+            try (FileChannel ch = FileChannel.open(idx,
+                    StandardOpenOption.READ)) {
+                index = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            }
+            RoomStore store = new RoomStore(map, index, capacity);
+            Room.addRoomListener(store.listener);
+            return store;
+        } catch (IOException | InvalidPathException | UncheckedIOException
+                | IndexOutOfBoundsException | NumberFormatException ex) {
+            if (map != null) {
+                try {
+                    map.close();
+                } catch (IOException ioe) {
+                    // nothing more to do
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+    * @return the start room
+    */
+    public Room getRoot() {
+        return root;
+    }
+
+    /** The player (not added to any room, as with
+    * {@link MapIO#loadMap MapIO.loadMap}).
+    * @return the player or null if there was none
+    */
+    public Player getPlayer() {
+        return player;
+    }
+
+    /**
+    * @return number of rooms in the map file
+    */
+    public int size() {
+        return rooms;
+    }
+
+    /**
+    * @param id room number (position in the map file)
+    * @return the Room (read from disk when first used)
+    * @throws IndexOutOfBoundsException if there is no such room
+    */
+    public Room room(int id) {
+        if (id < 0 || id >= rooms) {
+            throw new IndexOutOfBoundsException("Room " + id);
+        }
+        Room r = shells[id];
+        if (r == null) {
+            r = new Room(this, id);
+            shells[id] = r;
+        }
+        return r;
+    }
+
+    /**
+    * @param room a Room from this store
+    * @return its number, or -1 if it is not from this store
+    */
+    public int idOf(Room room) {
+        return (room.getStore() == this) ? room.getStoreId() : -1;
+    }
+
+    /**
+    * @return number of Room method calls which found the room in memory
+    */
+    public long hits() {
+        return hits;
+    }
+
+    /**
+    * @return number of rooms read from the map file
+    */
+    public long misses() {
+        return misses;
+    }
+
+    /**
+    * @return fraction of Room method calls which found the room in memory
+    */
+    public double hitRate() {
+        long total = hits + misses;
+        return (total == 0) ? 0.0 : (double) hits / total;
+    }
+
+    /**
+    * @return number of rooms paged out to make space
+    */
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+    * @return number of unchanged rooms in memory
+    */
+    public int resident() {
+        return lru.size();
+    }
+
+    /**
+    * @return number of changed rooms held in memory
+    */
+    public int pinned() {
+        return pinned.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d rooms, %d resident, %d pinned, "
+                + "%d hits, %d misses (%.1f%% hit rate), %d evictions",
+                rooms, resident(), pinned(), hits, misses, hitRate() * 100,
+                evictions);
+    }
+
+    /** Stop tracking changes and close the map file.
+    * Rooms which are paged out can not be used afterwards.
+    * @throws IOException if the map file can not be closed
+    */
+    @Override
+    public void close() throws IOException {
+        Room.removeRoomListener(listener);
+        map.close();
+    }
+
+    /* Called by Room whenever one of its methods is used */
+    void use(Room r) {
+        if (r == loading) {
+            return;
+        }
+        if (r.isPagedIn()) {
+            ++hits;
+            if (lru.get(r) == null && !r.isDirty() && pinned.remove(r)) {
+                lru.put(r, r);          // saved since it was changed
+            }
+            return;
+        }
+        ++misses;
+        load(r, new Player[1]);
+        lru.put(r, r);
+    }
+
+    /* Called (on any thread) when a clean room changes */
+    private void roomDirty(Room r) {
+        if (r.getStore() == this && r != loading) {
+            lru.remove(r);
+            pinned.add(r);
+        }
+    }
+
+    /* Read room r's lines from the map file. Players are stored in
+    * player[0] rather than added.
+    */
+    private void load(Room r, Player[] player) {
+        int id = r.getStoreId();
+        Room previous = loading;
+        loading = r;
+        try {
+            descs.seek(offset(0, id));
+            exits.seek(offset(1, id));
+            things.seek(offset(2, id));
+            r.pageIn(line(descs));
+            int count = Integer.parseInt(line(exits));
+            for (int j = 0; j < count; ++j) {
+                next(exits);
+                int pos = exits.indexOfSpace();
+                if (pos < 0) {
+                    throw new IOException("Bad exit for room " + id);
+                }
+                r.addExit(exits.textFrom(pos + 1),
+                        room(exits.intAt(0, pos)));
+            }
+            count = Integer.parseInt(line(things));
+            for (int j = 0; j < count; ++j) {
+                next(things);
+                Thing t = things.thing();
+                if (t == null) {
+                    throw new IOException("Bad item for room " + id);
+                }
+                if (t instanceof Player) {
+                    player[0] = (Player) t;
+                } else {
+                    r.enter(t);
+                }
+            }
+            r.pageInDone();
+        } catch (IOException ex) {
+            r.pageOut();
+            throw new UncheckedIOException(ex);
+        } catch (CrawlException | RuntimeException ex) {
+            r.pageOut();
+            throw new UncheckedIOException(new IOException(
+                    "Corrupt map at room " + id, ex));
+        } finally {
+            loading = previous;
+        }
+    }
+
+    /* Where a section (0 descriptions, 1 exits, 2 items) of room id starts.
+    * (The index is never more than Integer.MAX_VALUE bytes)
+    */
+    private long offset(int section, int id) {
+        long at = HEADER + (section * (long) rooms + id) * 8;
+        return index.getLong((int) at);
+    }
+
+    private static void next(MapScanner in) throws IOException {
+        if (!in.next()) {
+            throw new IOException("Unexpected end of map");
+        }
+    }
+
+    private static String line(MapScanner in) throws IOException {
+        next(in);
+        return in.line();
+    }
+
+    /* Is idx an index for the current version of the map? */
+    private static boolean current(Path idx, long size, long time) {
+        if (!Files.exists(idx)) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(idx,
+                StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(HEADER);
+            while (head.hasRemaining() && ch.read(head) >= 0) {
+                // keep reading
+            }
+            if (head.hasRemaining()) {
+                return false;
+            }
+            head.flip();
+            for (byte m : MAGIC) {
+                if (head.get() != m) {
+                    return false;
+                }
+            }
+            if (head.getInt() != VERSION || head.getLong() != size
+                    || head.getLong() != time) {
+                return false;
+            }
+            int count = head.getInt();
+            return count > 0 && ch.size() == HEADER + 24L * count;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /* Scan the map file and write its index (via a temporary file) */
+    private static boolean buildIndex(Path path, Path idx, long size,
+            long time) throws IOException {
+        Path dir = idx.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, idx.getFileName().toString(),
+                ".tmp");
+        try {
+            int count;
+            int playerRoom = -1;
+            try (MapScanner in = new MapScanner(path.toString());
+                    DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp),
+                    1 << 16))) {
+                next(in);
+                count = in.lineInt();
+                if (count <= 0
+                        || HEADER + 24L * count > Integer.MAX_VALUE) {
+                    return false;
+                }
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(size);
+                out.writeLong(time);
+                out.writeInt(count);
+                out.writeInt(-1);       // player room, filled in below
+                for (int i = 0; i < count; ++i) {
+                    out.writeLong(in.offset());
+                    next(in);
+                }
+                for (int pass = 0; pass < 2; ++pass) {
+                    for (int i = 0; i < count; ++i) {
+                        out.writeLong(in.offset());
+                        next(in);
+                        int lines = in.lineInt();
+                        for (int j = 0; j < lines; ++j) {
+                            next(in);
+                            if (pass == 1 && isPlayer(in.firstByte())) {
+                                playerRoom = i;
+                            }
+                        }
+                    }
+                }
+            }
+            try (FileChannel ch = FileChannel.open(tmp,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer bb = ByteBuffer.allocate(4).putInt(playerRoom);
+                bb.flip();
+                ch.write(bb, 28);
+            }
+            try {
+                Files.move(tmp, idx, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, idx, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+            return true;
+        } finally {
+            if (tmp != null) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /* Is a line starting with tag an encoded Player? */
+    private static boolean isPlayer(int tag) {
+        ThingCodec<?> codec = ThingCodec.forTag(tag);
+        return codec != null && Player.class.isAssignableFrom(codec.type());
+    }
+}
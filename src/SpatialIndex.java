@@ -0,0 +1,207 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Finds rooms by coordinates: the room at a point, the rooms in a
+* rectangle and the room nearest a point.
+* <br />The plane is cut into square buckets of BUCKET x BUCKET cells, and
+* each bucket lists the rooms in it, so a query only looks at the buckets
+* it overlaps. A {@link BoundsMapper BoundsMapper} keeps its index (see
+* {@link BoundsMapper#getIndex getIndex}) up to date as rooms are placed
+* and dropped.
+*/
+public class SpatialIndex {
+    /** Width and height of a bucket (in cells) */
+    public static final int BUCKET = 16;
+    private static final int SHIFT = 4;
+
+    private final Map<Long, Bucket> buckets = new HashMap<Long, Bucket>();
+    private int size;
+    /* Smallest and largest bucket coordinates ever used */
+    private int bxMin, bxMax, byMin, byMax;
+
+    /* The rooms in one bucket (unordered) */
+    private static class Bucket {
+        Room[] rooms = new Room[4];
+        int[] xs = new int[4];
+        int[] ys = new int[4];
+        int n;
+    }
+
+    /**
+    * @param coords coordinates of the rooms to index
+    * @return an index of every room in coords
+    */
+    public static SpatialIndex of(CoordMap coords) {
+        SpatialIndex index = new SpatialIndex();
+        coords.forEach(index::add);
+        return index;
+    }
+
+    /**
+    * @return number of rooms in the index
+    */
+    public int size() {
+        return size;
+    }
+
+    /** Remove every room. */
+    public void clear() {
+        buckets.clear();
+        size = 0;
+    }
+
+    /** Add a room.
+    * @param room Room to add
+    * @param x x coordinate
+    * @param y y coordinate
+    */
+    public void add(Room room, int x, int y) {
+        int bx = x >> SHIFT;
+        int by = y >> SHIFT;
+        if (size == 0 && buckets.isEmpty()) {
+            bxMin = bxMax = bx;
+            byMin = byMax = by;
+        } else {
+            bxMin = Math.min(bxMin, bx);
+            bxMax = Math.max(bxMax, bx);
+            byMin = Math.min(byMin, by);
+            byMax = Math.max(byMax, by);
+        }
+        Bucket b = buckets.computeIfAbsent(CoordMap.pack(bx, by),
+                k -> new Bucket());
+        if (b.n == b.rooms.length) {
+            b.rooms = Arrays.copyOf(b.rooms, b.n * 2);
+            b.xs = Arrays.copyOf(b.xs, b.n * 2);
+            b.ys = Arrays.copyOf(b.ys, b.n * 2);
+        }
+        b.rooms[b.n] = room;
+        b.xs[b.n] = x;
+        b.ys[b.n] = y;
+        ++b.n;
+        ++size;
+    }
+
+    /** Remove a room.
+    * @param room Room to remove
+    * @param x x coordinate it was added with
+    * @param y y coordinate it was added with
+    * @return true if it was found
+    */
+    public boolean remove(Room room, int x, int y) {
+        Long key = CoordMap.pack(x >> SHIFT, y >> SHIFT);
+        Bucket b = buckets.get(key);
+        if (b == null) {
+            return false;
+        }
+        for (int i = 0; i < b.n; ++i) {
+            if (b.rooms[i] == room) {
+                --b.n;
+                b.rooms[i] = b.rooms[b.n];
+                b.xs[i] = b.xs[b.n];
+                b.ys[i] = b.ys[b.n];
+                b.rooms[b.n] = null;
+                if (b.n == 0) {
+                    buckets.remove(key);
+                }
+                --size;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+    * @param x x coordinate
+    * @param y y coordinate
+    * @return a room at (x, y), or null if there is none
+    */
+    public Room roomAt(int x, int y) {
+        Bucket b = buckets.get(CoordMap.pack(x >> SHIFT, y >> SHIFT));
+        if (b != null) {
+            for (int i = 0; i < b.n; ++i) {
+                if (b.xs[i] == x && b.ys[i] == y) {
+                    return b.rooms[i];
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Find every room in a rectangle (in no particular order).
+    * @param x0 smallest x coordinate
+    * @param y0 smallest y coordinate
+    * @param x1 largest x coordinate
+    * @param y1 largest y coordinate
+    * @param action told each room inside and its coordinates
+    */
+    public void query(int x0, int y0, int x1, int y1, CoordMap.RoomAt action) {
+        int bx0 = Math.max(x0 >> SHIFT, bxMin);
+        int bx1 = Math.min(x1 >> SHIFT, bxMax);
+        int by0 = Math.max(y0 >> SHIFT, byMin);
+        int by1 = Math.min(y1 >> SHIFT, byMax);
+        for (int by = by0; by <= by1; ++by) {
+            for (int bx = bx0; bx <= bx1; ++bx) {
+                Bucket b = buckets.get(CoordMap.pack(bx, by));
+                if (b == null) {
+                    continue;
+                }
+                for (int i = 0; i < b.n; ++i) {
+                    int x = b.xs[i];
+                    int y = b.ys[i];
+                    if (x >= x0 && x <= x1 && y >= y0 && y <= y1) {
+                        action.accept(b.rooms[i], x, y);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Find the room closest to a point (looking outwards from it one
+    * ring of buckets at a time).
+    * @param x x coordinate (may be between cells)
+    * @param y y coordinate (may be between cells)
+    * @return the nearest room, or null if the index is empty
+    */
+    public Room nearest(double x, double y) {
+        if (size == 0) {
+            return null;
+        }
+        int cx = (int) Math.floor(x) >> SHIFT;
+        int cy = (int) Math.floor(y) >> SHIFT;
+        Room best = null;
+        double bestDist = Double.MAX_VALUE;
+        int maxRing = Math.max(Math.max(Math.abs(cx - bxMin),
+                Math.abs(cx - bxMax)), Math.max(Math.abs(cy - byMin),
+                Math.abs(cy - byMax)));
+        for (int r = 0; r <= maxRing; ++r) {
+            for (int by = cy - r; by <= cy + r; ++by) {
+                // whole rows at the top and bottom, just the ends otherwise
+                int step = (by == cy - r || by == cy + r) ? 1 : 2 * r;
+                for (int bx = cx - r; bx <= cx + r; bx += Math.max(step, 1)) {
+                    Bucket b = buckets.get(CoordMap.pack(bx, by));
+                    if (b == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < b.n; ++i) {
+                        double dx = b.xs[i] - x;
+                        double dy = b.ys[i] - y;
+                        double d = dx * dx + dy * dy;
+                        if (d < bestDist) {
+                            bestDist = d;
+                            best = b.rooms[i];
+                        }
+                    }
+                }
+            }
+            // anything in rings further out is at least this far away
+            double reach = Math.min(
+                    Math.min(x - ((cx - r) << SHIFT), ((cx + r + 1) << SHIFT) - x),
+                    Math.min(y - ((cy - r) << SHIFT), ((cy + r + 1) << SHIFT) - y));
+            if (best != null && bestDist <= reach * reach) {
+                break;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,144 @@
+import java.lang.ref.WeakReference;
+
+/** Shares equal Strings, so a map with thousands of rooms called "a damp
+* cellar" keeps one copy of the words rather than one per room.
+* <br />Room descriptions, exit labels and Thing descriptions go through
+* the {@link #shared shared} pool as they are set, which covers every
+* loader. The pool is a fixed size table: a String is looked for in a few
+* slots from where it hashes to and, if it is not there, put in an empty
+* slot or in place of whatever was in the first one. So the pool never
+* grows; a String pushed out just stops being shared. A weak pool
+* holds its Strings through WeakReferences, so it keeps nothing alive
+* which is no longer in use.
+* <br />Pools may be used by several threads without locking: a lookup
+* which races with another may miss, which only costs a duplicate String.
+* <br />Also here is the (single pass) replacement of the characters
+* descriptions may not contain.
+*/
+final class StringPool {
+    /** Slots in the shared pool */
+    static final int DEFAULT_CAPACITY = 1 << 14;
+    /* Slots looked at for each String */
+    private static final int PROBES = 4;
+
+    private static volatile StringPool shared =
+            new StringPool(DEFAULT_CAPACITY, true);
+
+    /* Strings, or WeakReferences to them for a weak pool */
+    private final Object[] slots;
+    private final boolean weak;
+
+    /**
+    * @param capacity most Strings held (rounded up to a power of two)
+    * @param weak true to hold the Strings weakly
+    */
+    StringPool(int capacity, boolean weak) {
+        int n = PROBES;
+        while (n < capacity) {
+            n <<= 1;
+        }
+        slots = new Object[n];
+        this.weak = weak;
+    }
+
+    /**
+    * @return the pool used by Room and Thing, or null if they don't share
+    *     Strings
+    */
+    static StringPool shared() {
+        return shared;
+    }
+
+    /** Change the pool used by Room and Thing (for Rooms and Things made
+    * from now on).
+    * @param pool the new pool, or null to stop sharing Strings
+    */
+    static void setShared(StringPool pool) {
+        shared = pool;
+    }
+
+    /**
+    * @param s a String (may be null)
+    * @return s or an equal String from the shared pool
+    */
+    static String share(String s) {
+        StringPool pool = shared;
+        return (pool == null) ? s : pool.intern(s);
+    }
+
+    /**
+    * @param s a String (may be null)
+    * @return an equal String already in the pool, or s (which is added)
+    */
+    String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        int h = s.hashCode();
+        int mask = slots.length - 1;
+        int home = (h ^ (h >>> 16)) & mask;
+        int free = -1;
+        for (int i = 0; i < PROBES; ++i) {
+            int at = (home + i) & mask;
+            String t = get(at);
+            if (t == null) {
+                if (free < 0) {
+                    free = at;
+                }
+            } else if (t.hashCode() == h && t.equals(s)) {
+                return t;
+            }
+        }
+        slots[(free < 0) ? home : free] = weak
+                ? new WeakReference<String>(s) : s;
+        return s;
+    }
+
+    /**
+    * @return number of Strings held (those a weak pool has lost are not
+    *     counted)
+    */
+    int size() {
+        int n = 0;
+        for (int i = 0; i < slots.length; ++i) {
+            if (get(i) != null) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    /** Replace each \n and \r (and optionally ;) with *.
+    * @param s String to clean up
+    * @param semicolons true to replace semicolons too
+    * @return s if it had none of them, otherwise a new String
+    */
+    static String clean(String s, boolean semicolons) {
+        int n = s.length();
+        for (int i = 0; i < n; ++i) {
+            if (bad(s.charAt(i), semicolons)) {
+                char[] chars = s.toCharArray();
+                for (int j = i; j < n; ++j) {
+                    if (bad(chars[j], semicolons)) {
+                        chars[j] = '*';
+                    }
+                }
+                return new String(chars);
+            }
+        }
+        return s;
+    }
+
+    private static boolean bad(char c, boolean semicolons) {
+        return c == '\n' || c == '\r' || (semicolons && c == ';');
+    }
+
+    @SuppressWarnings("unchecked")
+    private String get(int i) {
+        Object o = slots[i];
+        if (o instanceof WeakReference) {
+            return ((WeakReference<String>) o).get();
+        }
+        return (String) o;
+    }
+}
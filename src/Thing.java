@@ -56,9 +56,7 @@ public abstract class Thing implements Serializable {
      * correctly during construction
      */
     private String replaceDescription(String description) {
-        return description.replace('\n', '*')
-                .replace(';', '*')
-                .replace('\r', '*');
+        return StringPool.share(StringPool.clean(description, true));
     }
 
     /** Change the short description for the Thing.
@@ -0,0 +1,274 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Converts one kind of {@link Thing Thing} to and from its repr() form.
+* <br />Codecs are registered by type tag (the first character of the
+* encoded form), so new Thing subclasses can be saved and loaded by
+* registering a codec for them, without changing {@link MapIO MapIO}.
+* Codecs for Treasure, Critter and Explorer are always registered.
+* <br />Encoders append to a caller supplied buffer, and decoders read the
+* fields found by a single pass over the input (see
+* {@link ThingFields ThingFields}).
+* @param <T> type of Thing handled
+*/
+public abstract class ThingCodec<T extends Thing> {
+    /* Codecs by tag (tags are ASCII) and by exact class */
+    private static final ThingCodec<?>[] BY_TAG = new ThingCodec<?>[128];
+    private static final Map<Class<?>, ThingCodec<?>> BY_TYPE =
+            new ConcurrentHashMap<Class<?>, ThingCodec<?>>();
+
+    /** Encoding for {@link Treasure Treasure}: <b>$</b>;value;short */
+    public static final ThingCodec<Treasure> TREASURE =
+            new ThingCodec<Treasure>('$', Treasure.class) {
+        @Override
+        public void encode(Treasure t, StringBuilder out) {
+            out.append("$;");
+            appendValue(out, t.getValue());
+            out.append(';').append(t.getShort());
+        }
+
+        @Override
+        public Treasure decode(ThingFields f) {
+            if (f.size() != 3) {
+                return null;
+            }
+            double value = f.doubleAt(1);
+            return new Treasure(f.text(2), value);
+        }
+    };
+
+    /** Encoding for {@link Critter Critter}:
+    * <b>C</b>;value;health;short;long
+    */
+    public static final ThingCodec<Critter> CRITTER =
+            new ThingCodec<Critter>('C', Critter.class) {
+        @Override
+        public void encode(Critter c, StringBuilder out) {
+            out.append("C;");
+            appendValue(out, c.getValue());
+            out.append(';').append(c.getHealth())
+                    .append(';').append(c.getShort())
+                    .append(';').append(c.getLong());
+        }
+
+        @Override
+        public Critter decode(ThingFields f) {
+            if (f.size() != 5) {
+                return null;
+            }
+            double value = f.doubleAt(1);
+            int health = f.intAt(2);
+            return new Critter(f.text(3), f.text(4), value, health);
+        }
+    };
+
+    /** Encoding for {@link Explorer Explorer}: <b>E</b>;health;short;long
+    * (inventory is not saved)
+    */
+    public static final ThingCodec<Explorer> EXPLORER =
+            new ThingCodec<Explorer>('E', Explorer.class) {
+        @Override
+        public void encode(Explorer e, StringBuilder out) {
+            out.append("E;").append(e.getHealth())
+                    .append(';').append(e.getShort())
+                    .append(';').append(e.getLong());
+        }
+
+        @Override
+        public Explorer decode(ThingFields f) {
+            if (f.size() != 4) {
+                return null;
+            }
+            int health = f.intAt(1);
+            return new Explorer(f.text(2), f.text(3), health);
+        }
+    };
+
+    static {
+        register(TREASURE);
+        register(CRITTER);
+        register(EXPLORER);
+    }
+
+    /* Locale whose number symbols were last checked, and the result */
+    private static volatile Locale checkedLocale;
+    private static volatile boolean plainDigits;
+
+    private final char tag;
+    private final Class<T> type;
+
+    /**
+    * @param tag first character of the encoded form (ASCII, not ;)
+    * @param type exact class of Thing handled
+    */
+    protected ThingCodec(char tag, Class<T> type) {
+        if (tag >= BY_TAG.length || tag == ';') {
+            throw new IllegalArgumentException("Bad tag " + tag);
+        }
+        this.tag = tag;
+        this.type = type;
+    }
+
+    /**
+    * @return first character of the encoded form
+    */
+    public char tag() {
+        return tag;
+    }
+
+    /**
+    * @return class of Thing handled
+    */
+    public Class<T> type() {
+        return type;
+    }
+
+    /** Append the repr() form of a Thing.
+    * @param thing Thing to encode
+    * @param out buffer to append to
+    */
+    public abstract void encode(T thing, StringBuilder out);
+
+    /** Build a Thing from its fields.
+    * Note: the tag (field 0) has already been matched.
+    * @param fields fields of the encoded form
+    * @return decoded Thing or null if the fields are not a valid encoding
+    * @throws NumberFormatException if a numeric field is malformed
+    */
+    public abstract T decode(ThingFields fields);
+
+    /** Make a codec available for encoding and decoding.
+    * Replaces any codec with the same tag or type.
+    * @param codec codec to add
+    */
+    public static synchronized void register(ThingCodec<?> codec) {
+        BY_TAG[codec.tag] = codec;
+        BY_TYPE.put(codec.type, codec);
+    }
+
+    /**
+    * @param tag first character of an encoded Thing
+    * @return codec for that tag or null if there is none
+    */
+    public static ThingCodec<?> forTag(int tag) {
+        if (tag < 0 || tag >= BY_TAG.length) {
+            return null;
+        }
+        return BY_TAG[tag];
+    }
+
+    /** Append the repr() form of any Thing.
+    * Uses the codec for the Thing's exact class if there is one,
+    * otherwise its repr() method.
+    * @param thing Thing to encode
+    * @param out buffer to append to
+    */
+    @SuppressWarnings("unchecked")
+    public static void append(Thing thing, StringBuilder out) {
+        ThingCodec<Thing> codec =
+                (ThingCodec<Thing>) BY_TYPE.get(thing.getClass());
+        if (codec != null) {
+            codec.encode(thing, out);
+        } else {
+            out.append(thing.repr());
+        }
+    }
+
+    /** Decode a Thing with the codec registered for its tag.
+    * @param encoded repr() form
+    * @return decoded Thing or null for failure
+    * @throws StringIndexOutOfBoundsException if encoded is empty
+    */
+    public static Thing decode(String encoded) {
+        ThingCodec<?> codec = forTag(encoded.charAt(0));
+        if (codec == null) {
+            return null;
+        }
+        return decode(codec, ThingFields.of(encoded));
+    }
+
+    /** Decode already split fields with a given codec.
+    * @param codec codec to use
+    * @param fields fields of the encoded form
+    * @return decoded Thing or null for failure
+    */
+    static <T extends Thing> T decode(ThingCodec<T> codec,
+            ThingFields fields) {
+        try {
+            return codec.decode(fields);
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    /** Append value the way String.format("%.5f", value) would.
+    * Values which are exactly a 5 decimal place number (by far the
+    * most common) are written directly, everything else goes through
+    * String.format.
+    * @param out buffer to append to
+    * @param value value to write
+    */
+    static void appendValue(StringBuilder out, double value) {
+        if (Math.abs(value) < 1e9 && plainDigits()) {
+            long k = Math.round(value * 1e5);
+            // k / 1e5 is the double nearest to k * 10^-5, so if that is
+            // value then rounding value's decimal digits to 5 places
+            // (which is what Formatter does) gives exactly k * 10^-5
+            if (k / 1e5 == value) {
+                if (Double.doubleToRawLongBits(value) < 0) {    // includes -0.0
+                    out.append('-');
+                    k = -k;
+                }
+                int frac = (int) (k % 100000);
+                out.append(k / 100000).append('.');
+                for (int d = 10000; d > frac && d > 1; d /= 10) {
+                    out.append('0');
+                }
+                out.append(frac);
+                return;
+            }
+        }
+        out.append(String.format("%.5f", value));
+    }
+
+    /* Does the default locale format numbers with ASCII digits and '.'? */
+    private static boolean plainDigits() {
+        Locale l = Locale.getDefault(Locale.Category.FORMAT);
+        if (l != checkedLocale) {
+            DecimalFormatSymbols dfs = DecimalFormatSymbols.getInstance(l);
+            plainDigits = (dfs.getZeroDigit() == '0')
+                    && (dfs.getDecimalSeparator() == '.');
+            checkedLocale = l;
+        }
+        return plainDigits;
+    }
+
+    /** Writes Things one per line, reusing the same buffers for each
+    * instead of creating a String per Thing.
+    */
+    static final class LineWriter {
+        private final StringBuilder sb = new StringBuilder(64);
+        private char[] chars = new char[64];
+
+        /** Write thing's repr() form followed by a newline.
+        * @param thing Thing to write
+        * @param out where to write
+        * @throws IOException on write failure
+        */
+        void write(Thing thing, Writer out) throws IOException {
+            sb.setLength(0);
+            append(thing, sb);
+            sb.append('\n');
+            int n = sb.length();
+            if (n > chars.length) {
+                chars = new char[Math.max(n, chars.length * 2)];
+            }
+            sb.getChars(0, n, chars, 0);
+            out.write(chars, 0, n);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/** The ;-separated fields of an encoded {@link Thing Thing}, as read by a
+* {@link ThingCodec ThingCodec}.
+* <br />Fields are found in a single pass without creating substrings,
+* and follow String.split(";") exactly: trailing empty fields are dropped.
+* Numbers are parsed in place with the rules of Integer.parseInt and
+* Double.parseDouble (the JDK routines are used for anything outside the
+* plain decimal fast paths).
+* <br />Instances are reused from line to line, so codecs must not keep
+* them.
+*/
+public abstract class ThingFields {
+    /** Powers of ten which are exact as doubles */
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private int[] fieldStart = new int[8];
+    private int[] fieldEnd = new int[8];
+    private int size;
+
+    /**
+    * @param encoded repr() form of a Thing
+    * @return the fields of encoded
+    */
+    public static ThingFields of(String encoded) {
+        StringFields f = new StringFields(encoded);
+        f.split(0, encoded.length());
+        return f;
+    }
+
+    /** Character (or byte) at a position in the underlying text.
+    * @param pos position
+    * @return the char, or the byte value (negative for non-ASCII bytes)
+    */
+    protected abstract int at(int pos);
+
+    /**
+    * @param from start position
+    * @param to end position (exclusive)
+    * @return part of the underlying text as a String
+    */
+    protected abstract String text(int from, int to);
+
+    /** Find the fields between two positions of the underlying text.
+    * @param from start of the encoded Thing
+    * @param to end of the encoded Thing (exclusive)
+    */
+    protected void split(int from, int to) {
+        int count = 0;
+        int last = 0;           // number of fields up to the last non-empty
+        int begin = from;
+        for (int i = from;; ++i) {
+            if (i == to || at(i) == ';') {
+                if (count == fieldStart.length) {
+                    fieldStart = java.util.Arrays.copyOf(fieldStart, count * 2);
+                    fieldEnd = java.util.Arrays.copyOf(fieldEnd, count * 2);
+                }
+                fieldStart[count] = begin;
+                fieldEnd[count] = i;
+                ++count;
+                if (i > begin) {
+                    last = count;
+                }
+                if (i == to) {
+                    size = last;
+                    return;
+                }
+                begin = i + 1;
+            }
+        }
+    }
+
+    /**
+    * @return number of fields (String.split(";").length)
+    */
+    public int size() {
+        return size;
+    }
+
+    /**
+    * @param field field number (0 is the type tag)
+    * @return the field as a String
+    */
+    public String text(int field) {
+        check(field);
+        return text(fieldStart[field], fieldEnd[field]);
+    }
+
+    /**
+    * @param field field number
+    * @return the field parsed with Integer.parseInt rules
+    * @throws NumberFormatException if the field is not an int
+    */
+    public int intAt(int field) {
+        check(field);
+        return parseInt(fieldStart[field], fieldEnd[field]);
+    }
+
+    /**
+    * @param field field number
+    * @return the field parsed with Double.parseDouble rules
+    * @throws NumberFormatException if the field is not a double
+    */
+    public double doubleAt(int field) {
+        check(field);
+        return parseDouble(fieldStart[field], fieldEnd[field]);
+    }
+
+    private void check(int field) {
+        if (field < 0 || field >= size) {
+            throw new IndexOutOfBoundsException("Field " + field);
+        }
+    }
+
+    /** Integer.parseInt over part of the underlying text.
+    * Anything other than an optional sign followed by ASCII digits is
+    * handed to Integer.parseInt itself.
+    * @param from start position
+    * @param to end position (exclusive)
+    * @return the int
+    * @throws NumberFormatException if the text is not an int
+    */
+    int parseInt(int from, int to) {
+        int i = from;
+        boolean neg = false;
+        if (i < to && (at(i) == '-' || at(i) == '+')) {
+            neg = (at(i) == '-');
+            ++i;
+        }
+        if (i == to || to - i > 10) {
+            return Integer.parseInt(text(from, to));
+        }
+        long result = 0;        // 10 digits always fit
+        for (; i < to; ++i) {
+            int d = at(i) - '0';
+            if (d < 0 || d > 9) {
+                return Integer.parseInt(text(from, to));
+            }
+            result = result * 10 + d;
+        }
+        if (neg) {
+            result = -result;
+        }
+        if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \""
+                    + text(from, to) + "\"");
+        }
+        return (int) result;
+    }
+
+    /** Double.parseDouble over part of the underlying text.
+    * Plain [sign]digits[.digits] with at most 15 significant digits is
+    * exact (the mantissa and the power of ten are both exact doubles, so
+    * the single division is correctly rounded). Everything else
+    * (exponents, NaN, hex, whitespace...) goes to Double.parseDouble.
+    * @param from start position
+    * @param to end position (exclusive)
+    * @return the double
+    * @throws NumberFormatException if the text is not a double
+    */
+    double parseDouble(int from, int to) {
+        int i = from;
+        boolean neg = false;
+        if (i < to && (at(i) == '-' || at(i) == '+')) {
+            neg = (at(i) == '-');
+            ++i;
+        }
+        long mant = 0;
+        int seen = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < to; ++i) {
+            int c = at(i);
+            if (c >= '0' && c <= '9') {
+                ++seen;
+                if (mant != 0 || c != '0') {
+                    if (++digits > 15) {
+                        return Double.parseDouble(text(from, to));
+                    }
+                }
+                mant = mant * 10 + (c - '0');
+                if (point) {
+                    ++scale;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                return Double.parseDouble(text(from, to));
+            }
+        }
+        if (seen == 0 || scale >= POW10.length) {
+            return Double.parseDouble(text(from, to));
+        }
+        double v = mant / POW10[scale];
+        return neg ? -v : v;
+    }
+
+    /* Fields of a String */
+    private static class StringFields extends ThingFields {
+        private final String s;
+
+        StringFields(String s) {
+            this.s = s;
+        }
+
+        @Override
+        protected int at(int pos) {
+            return s.charAt(pos);
+        }
+
+        @Override
+        protected String text(int from, int to) {
+            return s.substring(from, to);
+        }
+    }
+}
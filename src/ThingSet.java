@@ -0,0 +1,398 @@
+import java.util.AbstractSequentialList;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/** The Things in a {@link Room Room}, in the order they entered, with no
+* Thing in twice (Things are compared by identity).
+* <br />The Things are kept in a linked list. Once there are more than a
+* few of them, a table from each Thing to its list node makes contains
+* and delete constant time, and the first lookup by name builds a second
+* table from each short description to the Things with it (chained in
+* order through their nodes).
+* <br />Lookups by name use the short description each Thing had when it
+* was added, whatever the number of Things: a Thing which changes its
+* short description while here is still found by the old one, until it
+* is deleted and appended again.
+* <br />Mobs are also counted by the kind of Mob they want to fight (see
+* {@link Mob#hostileTo Mob.hostileTo}), so finding out whether anything
+* wants to fight a Mob takes one check per kind rather than one per Mob.
+* Mobs which don't say are chained together and asked in turn.
+* <br />The list view is read only; Room changes it with append and
+* delete.
+*/
+final class ThingSet extends AbstractSequentialList<Thing> {
+    /* Most Things kept without the tables */
+    private static final int SMALL = 8;
+
+    private static final class Node {
+        final Thing thing;
+        Node prev, next;
+        /* Neighbours with the same short description (once indexed) */
+        Node samePrev, sameNext;
+        /* The short description when it was added (Things may change it) */
+        final String name;
+        /* Neighbouring Mobs which have to be asked (only for those) */
+        Node mobPrev, mobNext;
+        /* What the Thing was counted as hostile to when it was added */
+        Class<?> kind;
+
+        Node(Thing thing) {
+            this.thing = thing;
+            name = thing.getShortDescription();
+        }
+    }
+
+    /* First and last Things with one short description */
+    private static final class Chain {
+        Node first, last;
+    }
+
+    private Node first, last, firstMob, lastMob;
+    private int size;
+    /* Number of Mobs hostile to each kind of Mob (null if none) */
+    private Map<Class<?>, int[]> hostile;
+    /* Thing to node (null while there are only a few Things) */
+    private Map<Thing, Node> nodes;
+    /* Short description to Things (null until the first lookup) */
+    private Map<String, Chain> names;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return (o instanceof Thing) && node((Thing) o) != null;
+    }
+
+    /** Add a Thing at the end, unless it is already here.
+    * @param thing Thing to add
+    * @return true if it was added
+    */
+    boolean append(Thing thing) {
+        if (node(thing) != null) {
+            return false;
+        }
+        Node n = new Node(thing);
+        n.prev = last;
+        if (last == null) {
+            first = n;
+        } else {
+            last.next = n;
+        }
+        last = n;
+        Class<?> kind = hostileTo(thing);
+        n.kind = kind;
+        if (kind != null) {
+            if (hostile == null) {
+                hostile = new HashMap<Class<?>, int[]>(4);
+            }
+            ++hostile.computeIfAbsent(kind, k -> new int[1])[0];
+        } else if (thing instanceof Mob) {
+            n.mobPrev = lastMob;
+            if (lastMob == null) {
+                firstMob = n;
+            } else {
+                lastMob.mobNext = n;
+            }
+            lastMob = n;
+        }
+        ++size;
+        if (nodes != null) {
+            nodes.put(thing, n);
+        } else if (size > SMALL) {
+            nodes = new IdentityHashMap<Thing, Node>();
+            for (Node m = first; m != null; m = m.next) {
+                nodes.put(m.thing, m);
+            }
+        }
+        if (names != null) {
+            chain(n);
+        }
+        ++modCount;
+        return true;
+    }
+
+    /** Remove a Thing.
+    * @param thing Thing to remove
+    * @return true if it was here
+    */
+    boolean delete(Thing thing) {
+        Node n = node(thing);
+        if (n == null) {
+            return false;
+        }
+        if (n.prev == null) {
+            first = n.next;
+        } else {
+            n.prev.next = n.next;
+        }
+        if (n.next == null) {
+            last = n.prev;
+        } else {
+            n.next.prev = n.prev;
+        }
+        Class<?> kind = n.kind;
+        if (kind != null) {
+            if (--hostile.get(kind)[0] == 0) {
+                hostile.remove(kind);
+            }
+        } else if (thing instanceof Mob) {
+            if (n.mobPrev == null) {
+                firstMob = n.mobNext;
+            } else {
+                n.mobPrev.mobNext = n.mobNext;
+            }
+            if (n.mobNext == null) {
+                lastMob = n.mobPrev;
+            } else {
+                n.mobNext.mobPrev = n.mobPrev;
+            }
+        }
+        if (names != null) {
+            unchain(n);
+        }
+        if (nodes != null) {
+            nodes.remove(thing);
+        }
+        --size;
+        ++modCount;
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        first = last = firstMob = lastMob = null;
+        size = 0;
+        nodes = null;
+        names = null;
+        hostile = null;
+        ++modCount;
+    }
+
+    /**
+    * @param name short description to look for
+    * @return the first Thing (in order of entry) with that short
+    *     description, or null if there is none
+    */
+    Thing first(String name) {
+        if (size <= SMALL) {
+            for (Node n = first; n != null; n = n.next) {
+                if (n.name.equals(name)) {
+                    return n.thing;
+                }
+            }
+            return null;
+        }
+        Chain c = names().get(name);
+        return (c == null) ? null : c.first.thing;
+    }
+
+    /**
+    * @param name short description to look for
+    * @return every Thing with that short description, in order of entry
+    */
+    List<Thing> all(String name) {
+        List<Thing> found = new ArrayList<Thing>(1);
+        if (size <= SMALL) {
+            for (Node n = first; n != null; n = n.next) {
+                if (n.name.equals(name)) {
+                    found.add(n.thing);
+                }
+            }
+            return found;
+        }
+        Chain c = names().get(name);
+        for (Node n = (c == null) ? null : c.first; n != null; n = n.sameNext) {
+            found.add(n.thing);
+        }
+        return found;
+    }
+
+    /**
+    * @param mob a Mob
+    * @return true if any other Mob here wants to fight it
+    */
+    boolean trapped(Thing mob) {
+        if (hostile != null) {
+            Node own = node(mob);
+            Class<?> ownKind = (own != null) ? own.kind : null;
+            for (Map.Entry<Class<?>, int[]> e : hostile.entrySet()) {
+                int others = e.getValue()[0]
+                        - ((e.getKey() == ownKind) ? 1 : 0);
+                if (others > 0 && e.getKey().isInstance(mob)) {
+                    return true;
+                }
+            }
+        }
+        for (Node n = firstMob; n != null; n = n.mobNext) {
+            if (n.thing != mob && ((Mob) n.thing).wantsToFight((Mob) mob)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Walks the nodes (no iterator) */
+    @Override
+    public void forEach(Consumer<? super Thing> action) {
+        for (Node n = first; n != null; n = n.next) {
+            action.accept(n.thing);
+        }
+    }
+
+    @Override
+    public ListIterator<Thing> listIterator(int index) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        Node at = first;
+        for (int i = 0; i < index; ++i) {
+            at = at.next;
+        }
+        return new Iter(at, index);
+    }
+
+    /* Kind of Mob thing is counted as hostile to (null if it isn't) */
+    private static Class<?> hostileTo(Thing thing) {
+        return (thing instanceof Mob) ? ((Mob) thing).hostileTo() : null;
+    }
+
+    private Node node(Thing thing) {
+        if (nodes != null) {
+            return nodes.get(thing);
+        }
+        for (Node n = first; n != null; n = n.next) {
+            if (n.thing == thing) {
+                return n;
+            }
+        }
+        return null;
+    }
+
+    /* The name table, built on first use */
+    private Map<String, Chain> names() {
+        if (names == null) {
+            names = new HashMap<String, Chain>();
+            for (Node n = first; n != null; n = n.next) {
+                chain(n);
+            }
+        }
+        return names;
+    }
+
+    /* Add n at the end of the chain for its name */
+    private void chain(Node n) {
+        Chain c = names.computeIfAbsent(n.name, k -> new Chain());
+        n.samePrev = c.last;
+        n.sameNext = null;
+        if (c.last == null) {
+            c.first = n;
+        } else {
+            c.last.sameNext = n;
+        }
+        c.last = n;
+    }
+
+    private void unchain(Node n) {
+        String name = n.name;
+        Chain c = names.get(name);
+        if (n.samePrev == null) {
+            c.first = n.sameNext;
+        } else {
+            n.samePrev.sameNext = n.sameNext;
+        }
+        if (n.sameNext == null) {
+            c.last = n.samePrev;
+        } else {
+            n.sameNext.samePrev = n.samePrev;
+        }
+        if (c.first == null) {
+            names.remove(name);
+        }
+    }
+
+    /* Read only iterator over the nodes */
+    private final class Iter implements ListIterator<Thing> {
+        private Node next;
+        private int index;
+        private final int expected = modCount;
+
+        Iter(Node next, int index) {
+            this.next = next;
+            this.index = index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < size;
+        }
+
+        @Override
+        public Thing next() {
+            check();
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Thing t = next.thing;
+            next = next.next;
+            ++index;
+            return t;
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return index > 0;
+        }
+
+        @Override
+        public Thing previous() {
+            check();
+            if (index == 0) {
+                throw new NoSuchElementException();
+            }
+            next = (next == null) ? last : next.prev;
+            --index;
+            return next.thing;
+        }
+
+        @Override
+        public int nextIndex() {
+            return index;
+        }
+
+        @Override
+        public int previousIndex() {
+            return index - 1;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void set(Thing t) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(Thing t) {
+            throw new UnsupportedOperationException();
+        }
+
+        private void check() {
+            if (modCount != expected) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+}
@@ -47,7 +47,9 @@ public class Treasure extends Thing implements Lootable {
     */
     @Override
     public String repr() {
-        return "$;"+String.format("%.5f", value)+";"+getShort();
+        StringBuilder sb = new StringBuilder();
+        ThingCodec.TREASURE.encode(this, sb);
+        return sb.toString();
     }
     
     /** Factory to create Treasure from a String
@@ -59,15 +61,6 @@ public class Treasure extends Thing implements Lootable {
         if (encoded == null) {
             return null;
         }
-        String[] toks = encoded.split(";");
-        if (toks.length != 3) {
-            return null;
-        }
-        try {
-            double val = Double.parseDouble(toks[1]);
-            return new Treasure(toks[2], val);
-        } catch (NumberFormatException nfe) {
-            return null;
-        }
+        return ThingCodec.decode(ThingCodec.TREASURE, ThingFields.of(encoded));
     }
 }